@@ -0,0 +1,120 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.shenrh.canvas;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.LinkedList;
+import android.content.ComponentCallbacks2;
+import android.graphics.Bitmap;
+import android.graphics.Color;
+import android.test.AndroidTestCase;
+import android.util.Log;
+import android.widget.ImageView.ScaleType;
+
+/**
+ * 模拟列表滚动5000行，每行解码一张图片，移出可见范围的行把bitmap放回池中，稳定后解码不再分配新的bitmap
+ */
+public class BitmapPoolStressTest extends AndroidTestCase {
+    private static final String LOGTAG = "BitmapPoolStressTest";
+    private static final int ROW_COUNT = 5000;
+    // 同时可见的行数
+    private static final int WINDOW = 12;
+    private static final int[][] SIZES = { { 64, 64 }, { 96, 96 }, { 128, 64 } };
+
+    private final ImageSource[] mSources = new ImageSource[SIZES.length];
+    private final File[] mFiles = new File[SIZES.length];
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        BitmapPool.clear();
+
+        for (int i = 0; i < SIZES.length; i++) {
+            mFiles[i] = new File(getContext().getCacheDir(), LOGTAG + i + ".png");
+            writePng(mFiles[i], SIZES[i][0], SIZES[i][1], Color.rgb(i * 80, 120, 200));
+            mSources[i] = ImageSource.fromFile(mFiles[i].getPath());
+        }
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        BitmapPool.clear();
+        for (File file : mFiles) {
+            file.delete();
+        }
+        super.tearDown();
+    }
+
+    private static void writePng(File file, int width, int height, int color) throws IOException {
+        final Bitmap bitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+        bitmap.eraseColor(color);
+        final FileOutputStream out = new FileOutputStream(file);
+        try {
+            bitmap.compress(Bitmap.CompressFormat.PNG, 100, out);
+        } finally {
+            out.close();
+            bitmap.recycle();
+        }
+    }
+
+    public void testScrollingReusesBitmaps() throws IOException {
+        final int startAllocations = BitmapPool.allocationCount();
+        final int startHits = BitmapPool.hitCount();
+        final LinkedList<Bitmap> visible = new LinkedList<Bitmap>();
+
+        final long start = System.nanoTime();
+        for (int row = 0; row < ROW_COUNT; row++) {
+            final int index = row % SIZES.length;
+            final Bitmap bitmap = ImageLoader.decode(getContext(), mSources[index], SIZES[index][0], SIZES[index][1],
+                    Bitmap.Config.ARGB_8888, ScaleType.CENTER_CROP);
+            assertNotNull(bitmap);
+            assertEquals(SIZES[index][0], bitmap.getWidth());
+            assertEquals(SIZES[index][1], bitmap.getHeight());
+
+            visible.addLast(bitmap);
+            if (visible.size() > WINDOW) {
+                BitmapPool.put(visible.removeFirst());
+            }
+        }
+        final long elapsed = System.nanoTime() - start;
+
+        final int allocations = BitmapPool.allocationCount() - startAllocations;
+        final int hits = BitmapPool.hitCount() - startHits;
+        Log.i(LOGTAG, "rows=" + ROW_COUNT + " allocations=" + allocations + " hits=" + hits + " pool=" + BitmapPool.size() + "B "
+                + elapsed / ROW_COUNT / 1000 + "us/row");
+
+        // 同时存在的bitmap不超过可见行数加上每种尺寸各一个刚放回的
+        assertTrue("allocations:" + allocations, allocations <= WINDOW + SIZES.length);
+        assertTrue("hits:" + hits, hits >= ROW_COUNT - WINDOW - SIZES.length);
+        assertTrue(BitmapPool.size() <= BitmapPool.maxSize());
+
+        for (Bitmap bitmap : visible) {
+            BitmapPool.put(bitmap);
+        }
+    }
+
+    public void testTrimMemoryEmptiesPool() throws IOException {
+        for (int i = 0; i < SIZES.length; i++) {
+            BitmapPool.put(ImageLoader.decode(getContext(), mSources[i], SIZES[i][0], SIZES[i][1], Bitmap.Config.ARGB_8888,
+                    ScaleType.CENTER_CROP));
+        }
+        assertTrue(BitmapPool.size() > 0);
+
+        BitmapPool.trimMemory(ComponentCallbacks2.TRIM_MEMORY_MODERATE);
+        assertEquals(0, BitmapPool.size());
+    }
+}
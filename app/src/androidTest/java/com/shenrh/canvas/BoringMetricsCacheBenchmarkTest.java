@@ -0,0 +1,131 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.shenrh.canvas;
+
+import android.graphics.Paint;
+import android.test.AndroidTestCase;
+import android.text.BoringLayout;
+import android.text.TextPaint;
+import android.util.FloatMath;
+import android.util.Log;
+
+/**
+ * BoringMetricsCache对ASCII、CJK和RTL文字的判断和命中计数，和直接调用BoringLayout.isBoring的耗时只输出到日志
+ */
+public class BoringMetricsCacheBenchmarkTest extends AndroidTestCase {
+    private static final String LOGTAG = "BoringMetricsCacheBenchmarkTest";
+    private static final int ITERATIONS = 5000;
+
+    private static final String[] ASCII = { "shenrh", "Hello, world", "12:34:56", "A rather long single line of ascii text" };
+    private static final String[] CJK = { "刚刚", "5分钟前", "你好，世界", "昨天 下午3:20", "こんにちは世界", "안녕하세요 세계", "中文English混排" };
+
+    private TextPaint mPaint;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mPaint = new TextPaint(Paint.ANTI_ALIAS_FLAG);
+        mPaint.setTextSize(32);
+        BoringMetricsCache.clear();
+    }
+
+    public void testCjkIsBoring() {
+        for (String text : CJK) {
+            final BoringLayout.Metrics metrics = BoringMetricsCache.isBoring(text, mPaint);
+            assertNotNull(text, metrics);
+            assertEquals(text, (int) FloatMath.ceil(mPaint.measureText(text)), metrics.width);
+        }
+    }
+
+    public void testAsciiMatchesBoringLayout() {
+        for (String text : ASCII) {
+            final BoringLayout.Metrics expected = BoringLayout.isBoring(text, mPaint);
+            final BoringLayout.Metrics metrics = BoringMetricsCache.isBoring(text, mPaint);
+            assertNotNull(text, metrics);
+            assertEquals(text, expected.width, metrics.width);
+            assertEquals(text, expected.ascent, metrics.ascent);
+            assertEquals(text, expected.descent, metrics.descent);
+        }
+    }
+
+    public void testRtlAndControlCharsAreNotBoring() {
+        assertNull(BoringMetricsCache.isBoring("שלום", mPaint));
+        assertNull(BoringMetricsCache.isBoring("مرحبا", mPaint));
+        assertNull(BoringMetricsCache.isBoring("abc\u200Fdef", mPaint));
+        assertNull(BoringMetricsCache.isBoring("emoji \uD83D\uDE00", mPaint));
+        assertNull(BoringMetricsCache.isBoring("line\nbreak", mPaint));
+        assertNull(BoringMetricsCache.isBoring("tab\tstop", mPaint));
+    }
+
+    private long timeCache(String[] texts, boolean clearEachTime) {
+        final long start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            if (clearEachTime) {
+                BoringMetricsCache.clear();
+            }
+            BoringMetricsCache.isBoring(texts[i % texts.length], mPaint);
+        }
+        return System.nanoTime() - start;
+    }
+
+    private long timePlatform(String[] texts) {
+        final BoringLayout.Metrics reuse = new BoringLayout.Metrics();
+        final long start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            BoringLayout.isBoring(texts[i % texts.length], mPaint, reuse);
+        }
+        return System.nanoTime() - start;
+    }
+
+    public void testCachedMetricsMatchMeasured() {
+        final BoringLayout.Metrics[] measured = new BoringLayout.Metrics[CJK.length];
+        for (int i = 0; i < CJK.length; i++) {
+            measured[i] = BoringMetricsCache.isBoring(CJK[i], mPaint);
+        }
+
+        final int hits = BoringMetricsCache.hitCount();
+        for (int i = 0; i < CJK.length; i++) {
+            final BoringLayout.Metrics cached = BoringMetricsCache.isBoring(CJK[i], mPaint);
+            assertEquals(CJK[i], measured[i].width, cached.width);
+            assertEquals(CJK[i], measured[i].ascent, cached.ascent);
+            assertEquals(CJK[i], measured[i].descent, cached.descent);
+        }
+        assertEquals(CJK.length, BoringMetricsCache.hitCount() - hits);
+    }
+
+    public void testCjkBenchmark() {
+        // 预热
+        timeCache(CJK, false);
+        timePlatform(CJK);
+
+        final long platformNanos = timePlatform(CJK);
+        final long missNanos = timeCache(CJK, true);
+        BoringMetricsCache.clear();
+        final int hits = BoringMetricsCache.hitCount();
+        final int misses = BoringMetricsCache.missCount();
+        final long hitNanos = timeCache(CJK, false);
+
+        // 每个文字只测量一次，之后全部命中
+        assertEquals(CJK.length, BoringMetricsCache.missCount() - misses);
+        assertEquals(ITERATIONS - CJK.length, BoringMetricsCache.hitCount() - hits);
+
+        final long asciiPlatformNanos = timePlatform(ASCII);
+        final long asciiHitNanos = timeCache(ASCII, false);
+
+        Log.i(LOGTAG, "cjk: platform=" + platformNanos / ITERATIONS + "ns miss=" + missNanos / ITERATIONS + "ns hit=" + hitNanos
+                / ITERATIONS + "ns, ascii: platform=" + asciiPlatformNanos / ITERATIONS + "ns hit=" + asciiHitNanos / ITERATIONS
+                + "ns");
+    }
+}
@@ -0,0 +1,242 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.shenrh.canvas;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import android.graphics.Bitmap;
+import android.graphics.Color;
+import android.net.Uri;
+import android.test.AndroidTestCase;
+import android.widget.ImageView.ScaleType;
+
+/**
+ * journal重放、损坏的journal、按字节数的LRU淘汰以及打开时清理临时文件
+ */
+public class DiskThumbnailCacheTest extends AndroidTestCase {
+    private static final int SIZE = 32;
+
+    private File mDirectory;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mDirectory = new File(getContext().getCacheDir(), "DiskThumbnailCacheTest");
+        deleteDirectory();
+        assertTrue(mDirectory.mkdirs());
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        deleteDirectory();
+        super.tearDown();
+    }
+
+    private void deleteDirectory() {
+        final File[] files = mDirectory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        mDirectory.delete();
+    }
+
+    private static Bitmap createBitmap(int color) {
+        final Bitmap bitmap = Bitmap.createBitmap(SIZE, SIZE, Bitmap.Config.ARGB_8888);
+        bitmap.eraseColor(color);
+        return bitmap;
+    }
+
+    /**
+     * @return 写入后缓存增加的字节数
+     */
+    private static long put(DiskThumbnailCache cache, String key, int color) throws InterruptedException {
+        final long before = cache.size();
+        final Bitmap bitmap = createBitmap(color);
+        cache.put(key, bitmap);
+        bitmap.recycle();
+        cache.flush();
+        return cache.size() - before;
+    }
+
+    private static boolean contains(DiskThumbnailCache cache, String key) throws InterruptedException {
+        final Bitmap bitmap = cache.get(key, Bitmap.Config.ARGB_8888);
+        cache.flush();
+        if (bitmap == null) {
+            return false;
+        }
+        assertEquals(SIZE, bitmap.getWidth());
+        bitmap.recycle();
+        return true;
+    }
+
+    private void writeFile(String name, String content) throws IOException {
+        final Writer writer = new FileWriter(new File(mDirectory, name));
+        try {
+            writer.write(content);
+        } finally {
+            writer.close();
+        }
+    }
+
+    public void testJournalReplayKeepsEntriesAndLruOrder() throws Exception {
+        final DiskThumbnailCache cache = new DiskThumbnailCache(mDirectory);
+        final long sizeA = put(cache, "a", Color.RED);
+        final long sizeB = put(cache, "b", Color.GREEN);
+        assertTrue(sizeA > 0 && sizeB > 0);
+        // 读过a之后b是最久没有读过的
+        assertTrue(contains(cache, "a"));
+
+        final DiskThumbnailCache reopened = new DiskThumbnailCache(mDirectory);
+        assertTrue(contains(reopened, "b"));
+        assertTrue(contains(reopened, "a"));
+        assertEquals(sizeA + sizeB, reopened.size());
+
+        // 重放后的顺序是b、a，淘汰最久没有读过的b
+        reopened.setMaxSize(sizeA);
+        reopened.flush();
+        assertFalse(new File(mDirectory, "b").exists());
+        assertTrue(contains(reopened, "a"));
+    }
+
+    public void testCorruptJournalClearsCache() throws Exception {
+        writeFile("a", "not an image");
+        writeFile("journal", "unexpected header\n1\nPUT a 12 32 32\n");
+
+        final DiskThumbnailCache cache = new DiskThumbnailCache(mDirectory);
+        assertFalse(contains(cache, "a"));
+        assertEquals(0, cache.size());
+        assertFalse(new File(mDirectory, "a").exists());
+
+        // 重建后的journal可以正常使用
+        put(cache, "b", Color.BLUE);
+        assertTrue(contains(new DiskThumbnailCache(mDirectory), "b"));
+    }
+
+    public void testTruncatedLastLineKeepsEarlierEntries() throws Exception {
+        final DiskThumbnailCache cache = new DiskThumbnailCache(mDirectory);
+        final long sizeA = put(cache, "a", Color.RED);
+
+        // 模拟写到一半时进程被杀
+        final Writer writer = new FileWriter(new File(mDirectory, "journal"), true);
+        try {
+            writer.write("PUT b 12");
+        } finally {
+            writer.close();
+        }
+
+        final DiskThumbnailCache reopened = new DiskThumbnailCache(mDirectory);
+        assertTrue(contains(reopened, "a"));
+        assertFalse(contains(reopened, "b"));
+        assertEquals(sizeA, reopened.size());
+    }
+
+    public void testMalformedLineKeepsLaterEntries() throws Exception {
+        final DiskThumbnailCache cache = new DiskThumbnailCache(mDirectory);
+        final long sizeA = put(cache, "a", Color.RED);
+
+        final Writer writer = new FileWriter(new File(mDirectory, "journal"), true);
+        try {
+            writer.write("PUT x not-a-number 32 32\nGARBAGE\n");
+        } finally {
+            writer.close();
+        }
+        final long sizeB = put(cache, "b", Color.GREEN);
+
+        final DiskThumbnailCache reopened = new DiskThumbnailCache(mDirectory);
+        assertTrue(contains(reopened, "a"));
+        assertTrue(contains(reopened, "b"));
+        assertEquals(sizeA + sizeB, reopened.size());
+    }
+
+    public void testFailedDecodeCountsAsMiss() throws Exception {
+        final DiskThumbnailCache cache = new DiskThumbnailCache(mDirectory);
+        put(cache, "a", Color.RED);
+        writeFile("a", "not an image");
+
+        assertFalse(contains(cache, "a"));
+        assertEquals(0, cache.hitCount());
+        assertEquals(1, cache.missCount());
+        assertEquals(0, cache.size());
+        assertFalse(new File(mDirectory, "a").exists());
+    }
+
+    public void testFailedDecodeKeepsNewerEntry() throws Exception {
+        final DiskThumbnailCache cache = new DiskThumbnailCache(mDirectory);
+        put(cache, "a", Color.RED);
+        writeFile("a", "not an image");
+
+        // 读取失败时新的put可能已经写完，删除不能影响新写入的文件
+        final Bitmap bitmap = createBitmap(Color.GREEN);
+        cache.put("a", bitmap);
+        bitmap.recycle();
+        final Bitmap read = cache.get("a", Bitmap.Config.ARGB_8888);
+        if (read != null) {
+            read.recycle();
+        }
+        cache.flush();
+
+        assertTrue(contains(cache, "a"));
+    }
+
+    public void testEvictsLeastRecentlyReadByBytes() throws Exception {
+        final DiskThumbnailCache cache = new DiskThumbnailCache(mDirectory);
+        final long sizeA = put(cache, "a", Color.RED);
+        final long sizeB = put(cache, "b", Color.GREEN);
+        assertTrue(contains(cache, "a"));
+
+        cache.setMaxSize(sizeA + sizeB);
+        final long sizeC = put(cache, "c", Color.BLUE);
+
+        // 超过上限后从最久没有读过的b开始删除
+        assertFalse(contains(cache, "b"));
+        assertTrue(contains(cache, "a"));
+        assertTrue(contains(cache, "c"));
+        assertEquals(sizeA + sizeC, cache.size());
+    }
+
+    public void testOpenDeletesTmpAndUnknownFiles() throws Exception {
+        writeFile("a.tmp", "partial");
+        writeFile("journal.tmp", "partial");
+        writeFile("orphan", "no journal entry");
+
+        final DiskThumbnailCache cache = new DiskThumbnailCache(mDirectory);
+        assertFalse(contains(cache, "orphan"));
+
+        assertFalse(new File(mDirectory, "a.tmp").exists());
+        assertFalse(new File(mDirectory, "journal.tmp").exists());
+        assertFalse(new File(mDirectory, "orphan").exists());
+        assertTrue(new File(mDirectory, "journal").exists());
+    }
+
+    public void testContentUriIsNotDiskCached() throws Exception {
+        final ImageSource content = ImageSource.fromUri(Uri.parse("content://media/external/images/media/1"));
+        assertNull(DiskThumbnailCache.keyFor(content, SIZE, SIZE, Bitmap.Config.ARGB_8888, ScaleType.CENTER_CROP));
+
+        // file uri按修改时间和大小区分内容
+        final File file = new File(mDirectory, "source");
+        writeFile("source", "v1");
+        final ImageSource fileUri = ImageSource.fromUri(Uri.fromFile(file));
+        final String before = DiskThumbnailCache.keyFor(fileUri, SIZE, SIZE, Bitmap.Config.ARGB_8888, ScaleType.CENTER_CROP);
+        assertNotNull(before);
+
+        writeFile("source", "version 2");
+        final String after = DiskThumbnailCache.keyFor(fileUri, SIZE, SIZE, Bitmap.Config.ARGB_8888, ScaleType.CENTER_CROP);
+        assertFalse(before.equals(after));
+    }
+}
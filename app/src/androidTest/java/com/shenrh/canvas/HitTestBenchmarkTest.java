@@ -0,0 +1,160 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.shenrh.canvas;
+
+import java.util.ArrayList;
+import java.util.Random;
+import android.test.AndroidTestCase;
+import android.util.Log;
+import android.view.View.MeasureSpec;
+
+/**
+ * 不同子element数量下网格点击检测和逐个判断的结果一致，耗时只输出到日志，不作为断言
+ */
+public class HitTestBenchmarkTest extends AndroidTestCase {
+    private static final String LOGTAG = "HitTestBenchmarkTest";
+    private static final int COLUMNS = 20;
+    private static final int CELL = 40;
+    private static final int[] CHILD_COUNTS = { 20, 100, 500, 1000, 5000 };
+    private static final int ITERATIONS = 5000;
+    private static final int VERIFIED_POINTS = 500;
+
+    /**
+     * 子element按固定大小排成网格
+     */
+    private static class GridGroup extends UIElementGroup {
+        GridGroup(UIContext host) {
+            super(host);
+        }
+
+        @Override
+        protected void onMeasure(int widthMeasureSpec, int heightMeasureSpec) {
+            final int spec = MeasureSpec.makeMeasureSpec(CELL, MeasureSpec.EXACTLY);
+            for (UIElement element : getAllElement()) {
+                element.measure(spec, spec);
+            }
+            setMeasuredDimension(COLUMNS * CELL, rowsFor(getAllElement().size()) * CELL);
+        }
+
+        @Override
+        protected void onLayout(int left, int top, int right, int bottom) {
+            for (int i = 0; i < getAllElement().size(); i++) {
+                layoutElement(getAllElement().get(i), i % COLUMNS * CELL, i / COLUMNS * CELL, CELL, CELL);
+            }
+        }
+    }
+
+    private static class FixedElement extends UIElement {
+        FixedElement(UIContext host) {
+            super(host);
+        }
+
+        @Override
+        protected void onMeasure(int widthMeasureSpec, int heightMeasureSpec) {
+            setMeasuredDimension(MeasureSpec.getSize(widthMeasureSpec), MeasureSpec.getSize(heightMeasureSpec));
+        }
+    }
+
+    private static int rowsFor(int childCount) {
+        return (childCount + COLUMNS - 1) / COLUMNS;
+    }
+
+    private GridGroup createGroup(int childCount) {
+        final DetachedUIContext context = new DetachedUIContext(getContext());
+        final GridGroup group = new GridGroup(context);
+        for (int i = 0; i < childCount; i++) {
+            group.addElement(new FixedElement(context));
+        }
+        DetachedUIContext.layoutElement(group, MeasureSpec.makeMeasureSpec(COLUMNS * CELL, MeasureSpec.EXACTLY),
+                MeasureSpec.makeMeasureSpec(rowsFor(childCount) * CELL, MeasureSpec.EXACTLY));
+        return group;
+    }
+
+    private long timeHitTest(GridGroup group, int[] points) {
+        final long start = System.nanoTime();
+        for (int i = 0; i < points.length; i += 2) {
+            final ArrayList<UIElement> elements = group.findElementsByPoint(points[i], points[i + 1]);
+            group.recycleHitElements(elements);
+        }
+        return System.nanoTime() - start;
+    }
+
+    public void testGridMatchesLinearScan() {
+        for (int childCount : CHILD_COUNTS) {
+            final GridGroup group = createGroup(childCount);
+            final int[] points = randomPoints(childCount, VERIFIED_POINTS);
+
+            for (int i = 0; i < points.length; i += 2) {
+                group.setHitTestIndexEnabled(false);
+                final ArrayList<UIElement> linear = group.findElementsByPoint(points[i], points[i + 1]);
+                final ArrayList<UIElement> expected = new ArrayList<UIElement>(linear);
+                group.recycleHitElements(linear);
+
+                group.setHitTestIndexEnabled(true);
+                final ArrayList<UIElement> grid = group.findElementsByPoint(points[i], points[i + 1]);
+                assertEquals("children=" + childCount, expected, grid);
+                group.recycleHitElements(grid);
+            }
+        }
+    }
+
+    /**
+     * 耗时随子element数量的变化，只输出日志
+     */
+    public void testHitTestCostByChildCount() {
+        for (int childCount : CHILD_COUNTS) {
+            final GridGroup group = createGroup(childCount);
+            final int[] points = randomPoints(childCount, ITERATIONS);
+
+            group.setHitTestIndexEnabled(false);
+            timeHitTest(group, points);
+            final long linearNanos = timeHitTest(group, points);
+
+            group.setHitTestIndexEnabled(true);
+            timeHitTest(group, points);
+            final long gridNanos = timeHitTest(group, points);
+
+            Log.i(LOGTAG, "children=" + childCount + " linear=" + linearNanos / ITERATIONS + "ns/hit grid=" + gridNanos
+                    / ITERATIONS + "ns/hit");
+        }
+    }
+
+    private static int[] randomPoints(int childCount, int count) {
+        final Random random = new Random(42);
+        final int[] points = new int[count * 2];
+        for (int i = 0; i < points.length; i += 2) {
+            points[i] = random.nextInt(COLUMNS * CELL);
+            points[i + 1] = random.nextInt(rowsFor(childCount) * CELL);
+        }
+        return points;
+    }
+
+    public void testNestedHitTestUsesSeparateLists() {
+        final GridGroup group = createGroup(COLUMNS * 10);
+
+        final ArrayList<UIElement> outer = group.findElementsByPoint(10, 10);
+        final UIElement outerHit = outer.get(0);
+
+        // 点击回调中再次分发到同一个group
+        final ArrayList<UIElement> inner = group.findElementsByPoint(CELL * 3 + 10, CELL * 3 + 10);
+        assertNotSame(outer, inner);
+        assertNotSame(outerHit, inner.get(0));
+        group.recycleHitElements(inner);
+
+        assertEquals(1, outer.size());
+        assertSame(outerHit, outer.get(0));
+        group.recycleHitElements(outer);
+    }
+}
@@ -0,0 +1,79 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.shenrh.canvas;
+
+import android.graphics.Paint;
+import android.test.AndroidTestCase;
+import android.text.Layout;
+import android.text.StaticLayout;
+import android.text.TextPaint;
+
+/**
+ * 不断追加文字后复用块得到的行和对整个文字排版一致，包括从右到左的文字
+ */
+public class IncrementalLayoutTest extends AndroidTestCase {
+    private static final int WIDTH = 300;
+    private static final String LTR_WORDS = "hello world ";
+    private static final String RTL_WORDS = "\u05e9\u05dc\u05d5\u05dd \u05e2\u05d5\u05dc\u05dd ";
+
+    private TextPaint mPaint;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mPaint = new TextPaint(Paint.ANTI_ALIAS_FLAG);
+        mPaint.setTextSize(20);
+    }
+
+    /**
+     * 每次追加一段后update，和最终文字的StaticLayout逐行比较
+     */
+    private void assertAppendMatchesFullLayout(String first, String appended, int appendCount) {
+        final StringBuilder text = new StringBuilder(first);
+        IncrementalLayout layout = IncrementalLayout.create(text.toString(), mPaint, WIDTH, Layout.Alignment.ALIGN_NORMAL, 1, 0, true);
+        for (int i = 0; i < appendCount; i++) {
+            text.append(appended);
+            layout = layout.update(text.toString());
+            assertSameLines(new StaticLayout(text.toString(), mPaint, WIDTH, Layout.Alignment.ALIGN_NORMAL, 1, 0, true), layout);
+        }
+    }
+
+    private static void assertSameLines(Layout expected, Layout actual) {
+        assertEquals(expected.getLineCount(), actual.getLineCount());
+        for (int i = 0; i < expected.getLineCount(); i++) {
+            assertEquals("line " + i, expected.getLineStart(i), actual.getLineStart(i));
+            assertEquals("line " + i, expected.getLineEnd(i), actual.getLineEnd(i));
+            assertEquals("line " + i, expected.getParagraphDirection(i), actual.getParagraphDirection(i));
+        }
+        assertEquals(expected.getHeight(), actual.getHeight());
+    }
+
+    public void testLtrParagraphWithAppendedRtl() {
+        assertAppendMatchesFullLayout(LTR_WORDS, RTL_WORDS, 40);
+    }
+
+    public void testRtlParagraphWithAppendedLtr() {
+        assertAppendMatchesFullLayout(RTL_WORDS, LTR_WORDS, 40);
+    }
+
+    public void testNeutralStartThenRtl() {
+        // 开头没有强方向字符，整段的方向由之后追加的文字决定
+        assertAppendMatchesFullLayout("12345 67890 ", "12 " + RTL_WORDS, 30);
+    }
+
+    public void testMixedParagraphs() {
+        assertAppendMatchesFullLayout(LTR_WORDS, LTR_WORDS + RTL_WORDS + "\n" + RTL_WORDS, 20);
+    }
+}
@@ -0,0 +1,222 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.shenrh.canvas;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.os.Debug;
+import android.test.AndroidTestCase;
+import android.text.TextUtils.TruncateAt;
+import android.util.Log;
+import android.view.View.MeasureSpec;
+import android.view.ViewGroup.LayoutParams;
+
+/**
+ * 单行文字的LabelUIElement和TextUIElement的分配次数对比，保留内存和measure/draw耗时只输出到日志
+ */
+@SuppressWarnings("deprecation")
+public class LabelUIElementBenchmarkTest extends AndroidTestCase {
+    private static final String LOGTAG = "LabelUIElementBenchmarkTest";
+    private static final int ELEMENT_COUNT = 1000;
+    private static final int ITERATIONS = 2000;
+    private static final int WIDTH = 200;
+    private static final int HEIGHT = 60;
+    private static final String[] TEXTS = { "shenrh", "12:34", "A rather long display name that needs ellipsis", "昨天 下午3:20" };
+
+    private interface ElementFactory {
+        UIElement create(DetachedUIContext context, String text);
+
+        void setText(UIElement element, String text);
+    }
+
+    private static final ElementFactory LABEL_FACTORY = new ElementFactory() {
+        @Override
+        public UIElement create(DetachedUIContext context, String text) {
+            final LabelUIElement element = new LabelUIElement(context);
+            element.setLayoutParams(new LayoutParams(LayoutParams.WRAP_CONTENT, LayoutParams.WRAP_CONTENT));
+            element.setTextSize(16);
+            element.setEllipsize(TruncateAt.END);
+            element.setText(text);
+            return element;
+        }
+
+        @Override
+        public void setText(UIElement element, String text) {
+            ((LabelUIElement) element).setText(text);
+        }
+    };
+
+    private static final ElementFactory TEXT_FACTORY = new ElementFactory() {
+        @Override
+        public UIElement create(DetachedUIContext context, String text) {
+            final TextUIElement element = new TextUIElement(context);
+            element.setLayoutParams(new LayoutParams(LayoutParams.WRAP_CONTENT, LayoutParams.WRAP_CONTENT));
+            element.setTextSize(16);
+            element.setEllipsize(TruncateAt.END);
+            element.setMaxLines(1);
+            element.setText(text);
+            return element;
+        }
+
+        @Override
+        public void setText(UIElement element, String text) {
+            ((TextUIElement) element).setText(text);
+        }
+    };
+
+    private static void layout(UIElement element) {
+        DetachedUIContext.layoutElement(element, MeasureSpec.makeMeasureSpec(WIDTH, MeasureSpec.AT_MOST),
+                MeasureSpec.makeMeasureSpec(HEIGHT, MeasureSpec.AT_MOST));
+    }
+
+    private static void startCounting() {
+        Debug.resetThreadAllocCount();
+        Debug.startAllocCounting();
+    }
+
+    private static int stopCounting() {
+        Debug.stopAllocCounting();
+        return Debug.getThreadAllocCount();
+    }
+
+    private static long usedMemory() {
+        final Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            System.runFinalization();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    /**
+     * @return 每个element保留的平均字节数
+     */
+    private long measureRetainedBytes(ElementFactory factory) {
+        final DetachedUIContext context = new DetachedUIContext(getContext());
+        final UIElement[] elements = new UIElement[ELEMENT_COUNT];
+
+        final long before = usedMemory();
+        for (int i = 0; i < ELEMENT_COUNT; i++) {
+            elements[i] = factory.create(context, TEXTS[i % TEXTS.length] + i);
+            layout(elements[i]);
+        }
+        final long after = usedMemory();
+
+        assertNotNull(elements[ELEMENT_COUNT - 1]);
+        return (after - before) / ELEMENT_COUNT;
+    }
+
+    /**
+     * @return 创建并layout所有element的分配次数
+     */
+    private int countCreateAllocations(ElementFactory factory) {
+        final DetachedUIContext context = new DetachedUIContext(getContext());
+        final UIElement[] elements = new UIElement[ELEMENT_COUNT];
+
+        startCounting();
+        for (int i = 0; i < ELEMENT_COUNT; i++) {
+            elements[i] = factory.create(context, TEXTS[i % TEXTS.length]);
+            layout(elements[i]);
+        }
+        return stopCounting();
+    }
+
+    private static void measureAndDraw(ElementFactory factory, UIElement element, Canvas canvas) {
+        for (int i = 0; i < ITERATIONS; i++) {
+            factory.setText(element, TEXTS[i % TEXTS.length]);
+            layout(element);
+            element.draw(canvas);
+        }
+    }
+
+    /**
+     * 每次换一个文字后measure、layout并绘制
+     *
+     * @return 总耗时
+     */
+    private long timeMeasureAndDraw(ElementFactory factory, Canvas canvas) {
+        final DetachedUIContext context = new DetachedUIContext(getContext());
+        final UIElement element = factory.create(context, TEXTS[0]);
+        layout(element);
+        element.draw(canvas);
+
+        final long start = System.nanoTime();
+        measureAndDraw(factory, element, canvas);
+        return System.nanoTime() - start;
+    }
+
+    /**
+     * @return 换文字后measure、layout并绘制的分配次数
+     */
+    private int countMeasureAndDrawAllocations(ElementFactory factory, Canvas canvas) {
+        final DetachedUIContext context = new DetachedUIContext(getContext());
+        final UIElement element = factory.create(context, TEXTS[0]);
+        // 先把所有文字过一遍，数组等按最长的文字分配好
+        measureAndDraw(factory, element, canvas);
+
+        startCounting();
+        measureAndDraw(factory, element, canvas);
+        return stopCounting();
+    }
+
+    public void testMemory() {
+        // 预热类加载和共享缓存
+        measureRetainedBytes(LABEL_FACTORY);
+        measureRetainedBytes(TEXT_FACTORY);
+
+        final long labelBytes = measureRetainedBytes(LABEL_FACTORY);
+        final long textBytes = measureRetainedBytes(TEXT_FACTORY);
+        Log.i(LOGTAG, "retained per element: label=" + labelBytes + "B text=" + textBytes + "B");
+    }
+
+    public void testCreateAllocations() {
+        countCreateAllocations(LABEL_FACTORY);
+        countCreateAllocations(TEXT_FACTORY);
+
+        final int labelAllocations = countCreateAllocations(LABEL_FACTORY);
+        final int textAllocations = countCreateAllocations(TEXT_FACTORY);
+        Log.i(LOGTAG, "create allocations: label=" + labelAllocations + " text=" + textAllocations);
+        assertTrue(labelAllocations < textAllocations);
+    }
+
+    public void testMeasureAndDraw() {
+        final Bitmap bitmap = Bitmap.createBitmap(WIDTH, HEIGHT, Bitmap.Config.ARGB_8888);
+        final Canvas canvas = new Canvas(bitmap);
+        try {
+            timeMeasureAndDraw(LABEL_FACTORY, canvas);
+            timeMeasureAndDraw(TEXT_FACTORY, canvas);
+
+            final long labelNanos = timeMeasureAndDraw(LABEL_FACTORY, canvas);
+            final long textNanos = timeMeasureAndDraw(TEXT_FACTORY, canvas);
+            Log.i(LOGTAG, "measure+draw: label=" + labelNanos / ITERATIONS / 1000 + "us text=" + textNanos / ITERATIONS / 1000
+                    + "us");
+        } finally {
+            bitmap.recycle();
+        }
+    }
+
+    public void testMeasureAndDrawAllocations() {
+        final Bitmap bitmap = Bitmap.createBitmap(WIDTH, HEIGHT, Bitmap.Config.ARGB_8888);
+        final Canvas canvas = new Canvas(bitmap);
+        try {
+            final int labelAllocations = countMeasureAndDrawAllocations(LABEL_FACTORY, canvas);
+            final int textAllocations = countMeasureAndDrawAllocations(TEXT_FACTORY, canvas);
+            Log.i(LOGTAG, "measure+draw allocations: label=" + labelAllocations + " text=" + textAllocations);
+            assertTrue(labelAllocations < textAllocations);
+        } finally {
+            bitmap.recycle();
+        }
+    }
+}
@@ -0,0 +1,84 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.shenrh.canvas;
+
+import android.test.AndroidTestCase;
+
+/**
+ * 默认的中文文字和外部传入的Formatter
+ */
+public class RelativeTimeUIElementTest extends AndroidTestCase {
+    private static final long MINUTE = 60 * 1000L;
+
+    private static class EnglishFormatter implements RelativeTimeUIElement.Formatter {
+        @Override
+        public CharSequence formatJustNow() {
+            return "just now";
+        }
+
+        @Override
+        public CharSequence formatMinutesAgo(int minutes) {
+            return minutes == 1 ? "1 minute ago" : minutes + " minutes ago";
+        }
+
+        @Override
+        public CharSequence formatHoursAgo(int hours) {
+            return hours + " hours ago";
+        }
+
+        @Override
+        public CharSequence formatDaysAgo(int days) {
+            return days + " days ago";
+        }
+    }
+
+    private RelativeTimeUIElement mElement;
+    private long mTime;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mElement = new RelativeTimeUIElement(new DetachedUIContext(getContext()));
+        mTime = System.currentTimeMillis();
+        mElement.setTime(mTime);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        RelativeTimeUIElement.setDefaultFormatter(null);
+        super.tearDown();
+    }
+
+    public void testDefaultText() {
+        mElement.refresh(mTime + 5 * MINUTE);
+        assertEquals("5分钟前", mElement.getText().toString());
+        assertEquals(mTime + 6 * MINUTE, mElement.getNextUpdateTime());
+    }
+
+    public void testElementFormatter() {
+        mElement.setFormatter(new EnglishFormatter());
+        mElement.refresh(mTime + MINUTE);
+        assertEquals("1 minute ago", mElement.getText().toString());
+
+        mElement.refresh(mTime + 5 * MINUTE);
+        assertEquals("5 minutes ago", mElement.getText().toString());
+    }
+
+    public void testDefaultFormatter() {
+        RelativeTimeUIElement.setDefaultFormatter(new EnglishFormatter());
+        mElement.refresh(mTime);
+        assertEquals("just now", mElement.getText().toString());
+    }
+}
@@ -0,0 +1,149 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.shenrh.canvas;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+import android.graphics.Paint;
+import android.test.AndroidTestCase;
+import android.text.Layout;
+import android.text.StaticLayout;
+import android.text.TextPaint;
+import android.text.TextUtils.TruncateAt;
+import android.util.Log;
+
+/**
+ * 多个线程同时创建带maxLines的StaticLayout，结果和单线程一致。无锁的create和加全局锁的旧实现的吞吐量只输出到日志
+ */
+public class StaticLayoutWithMaxLinesBenchmarkTest extends AndroidTestCase {
+    private static final String LOGTAG = "StaticLayoutWithMaxLinesBenchmarkTest";
+    private static final int THREAD_COUNT = 4;
+    private static final int LAYOUTS_PER_THREAD = 200;
+    private static final int WIDTH = 480;
+    private static final int MAX_LINES = 3;
+    private static final String TEXT = "The quick brown fox jumps over the lazy dog. 敏捷的棕色狐狸跳过了那只懒狗。"
+            + "The quick brown fox jumps over the lazy dog again, and then once more for good measure.";
+
+    private interface Factory {
+        StaticLayout create(TextPaint paint);
+    }
+
+    private static StaticLayout createLockFree(TextPaint paint) {
+        return StaticLayoutWithMaxLines.create(TEXT, 0, TEXT.length(), paint, WIDTH, Layout.Alignment.ALIGN_NORMAL, 1.0f, 0.0f, true,
+                TruncateAt.END, WIDTH, MAX_LINES);
+    }
+
+    /**
+     * 和修改前一样，所有线程共用一把锁
+     */
+    private static synchronized StaticLayout createSynchronized(TextPaint paint) {
+        return createLockFree(paint);
+    }
+
+    /**
+     * @return 所有线程完成的总耗时
+     */
+    private long runConcurrently(final Factory factory) throws Exception {
+        final CountDownLatch start = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(THREAD_COUNT);
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+
+        for (int i = 0; i < THREAD_COUNT; i++) {
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    // 每个线程使用自己的paint
+                    final TextPaint paint = new TextPaint(Paint.ANTI_ALIAS_FLAG);
+                    paint.setTextSize(32);
+                    try {
+                        start.await();
+                        for (int j = 0; j < LAYOUTS_PER_THREAD; j++) {
+                            final StaticLayout layout = factory.create(paint);
+                            if (layout.getLineCount() > MAX_LINES) {
+                                throw new AssertionError("lineCount:" + layout.getLineCount());
+                            }
+                        }
+                    } catch (Throwable e) {
+                        failure.compareAndSet(null, e);
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            }, LOGTAG + " #" + i).start();
+        }
+
+        final long startNanos = System.nanoTime();
+        start.countDown();
+        done.await();
+        final long elapsed = System.nanoTime() - startNanos;
+
+        if (failure.get() != null) {
+            throw new AssertionError(failure.get());
+        }
+        return elapsed;
+    }
+
+    public void testConcurrentCreateThroughput() throws Exception {
+        if (!StaticLayoutWithMaxLines.isSupported()) {
+            return;
+        }
+
+        final Factory lockFree = new Factory() {
+            @Override
+            public StaticLayout create(TextPaint paint) {
+                return createLockFree(paint);
+            }
+        };
+        final Factory synchronizedFactory = new Factory() {
+            @Override
+            public StaticLayout create(TextPaint paint) {
+                return createSynchronized(paint);
+            }
+        };
+
+        // 预热
+        runConcurrently(lockFree);
+        runConcurrently(synchronizedFactory);
+
+        final long synchronizedNanos = runConcurrently(synchronizedFactory);
+        final long lockFreeNanos = runConcurrently(lockFree);
+
+        final int total = THREAD_COUNT * LAYOUTS_PER_THREAD;
+        Log.i(LOGTAG, "threads=" + THREAD_COUNT + " cpus=" + Runtime.getRuntime().availableProcessors() + " synchronized=" + total
+                * 1000000000L / synchronizedNanos + " layouts/s lockFree=" + total * 1000000000L / lockFreeNanos + " layouts/s");
+    }
+
+    public void testConcurrentCreateMatchesSingleThread() throws Exception {
+        if (!StaticLayoutWithMaxLines.isSupported()) {
+            return;
+        }
+
+        final TextPaint paint = new TextPaint(Paint.ANTI_ALIAS_FLAG);
+        paint.setTextSize(32);
+        final StaticLayout expected = createLockFree(paint);
+
+        runConcurrently(new Factory() {
+            @Override
+            public StaticLayout create(TextPaint threadPaint) {
+                final StaticLayout layout = createLockFree(threadPaint);
+                if (layout.getLineCount() != expected.getLineCount()
+                        || layout.getLineEnd(layout.getLineCount() - 1) != expected.getLineEnd(expected.getLineCount() - 1)) {
+                    throw new AssertionError("layout differs from single-threaded result");
+                }
+                return layout;
+            }
+        });
+    }
+}
@@ -0,0 +1,119 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.shenrh.canvas;
+
+import android.test.AndroidTestCase;
+import android.util.Log;
+import android.view.View.MeasureSpec;
+import android.view.ViewGroup.LayoutParams;
+
+/**
+ * wrap_content宽度的文字element不断在末尾追加到10k字符，增量排版和普通排版的结果一致，增量排版请求layout的次数更少。
+ * 耗时只输出到日志，不作为断言
+ */
+public class TextAppendBenchmarkTest extends AndroidTestCase {
+    private static final String LOGTAG = "TextAppendBenchmarkTest";
+    private static final int TOTAL_CHARS = 10000;
+    private static final String CHUNK = "append some words ";
+    private static final int MAX_WIDTH = 480;
+
+    private TextUIElement createElement(DetachedUIContext context, boolean incremental) {
+        final TextUIElement element = new TextUIElement(context);
+        element.setLayoutParams(new LayoutParams(LayoutParams.WRAP_CONTENT, LayoutParams.WRAP_CONTENT));
+        element.setTextSize(16);
+        element.setIncrementalLayoutEnabled(incremental);
+        return element;
+    }
+
+    private static void layout(TextUIElement element) {
+        DetachedUIContext.layoutElement(element, MeasureSpec.makeMeasureSpec(MAX_WIDTH, MeasureSpec.AT_MOST),
+                MeasureSpec.makeMeasureSpec(0, MeasureSpec.UNSPECIFIED));
+    }
+
+    /**
+     * @return 追加过程中重新measure/layout的次数
+     */
+    private int appendAll(TextUIElement element, DetachedUIContext context, long[] outNanos) {
+        final StringBuilder text = new StringBuilder();
+        layout(element);
+
+        int layoutCount = 0;
+        final long start = System.nanoTime();
+        while (text.length() < TOTAL_CHARS) {
+            text.append(CHUNK);
+            // 每隔一段换一次段落
+            if (text.length() % 1000 < CHUNK.length()) {
+                text.append('\n');
+            }
+            element.setText(text.toString());
+            if (context.consumeLayoutRequest() || element.isLayoutRequested()) {
+                layout(element);
+                layoutCount++;
+            }
+        }
+        outNanos[0] = System.nanoTime() - start;
+        return layoutCount;
+    }
+
+    public void testAppend10kChars() {
+        final long[] nanos = new long[1];
+        final DetachedUIContext plainContext = new DetachedUIContext(getContext());
+        final TextUIElement plain = createElement(plainContext, false);
+        final int plainLayouts = appendAll(plain, plainContext, nanos);
+        final long plainNanos = nanos[0];
+
+        final DetachedUIContext incrementalContext = new DetachedUIContext(getContext());
+        final TextUIElement incremental = createElement(incrementalContext, true);
+        final int incrementalLayouts = appendAll(incremental, incrementalContext, nanos);
+        final long incrementalNanos = nanos[0];
+
+        final int appends = TOTAL_CHARS / CHUNK.length();
+        Log.i(LOGTAG, "chars=" + TOTAL_CHARS + " plain=" + plainNanos / appends / 1000 + "us/append (" + plainLayouts
+                + " layouts) incremental=" + incrementalNanos / appends / 1000 + "us/append (" + incrementalLayouts + " layouts)");
+
+        // 结果一致
+        assertEquals(plain.getMeasuredWidth(), incremental.getMeasuredWidth());
+        assertEquals(plain.getMeasuredHeight(), incremental.getMeasuredHeight());
+        assertEquals(plain.getLayout().getLineCount(), incremental.getLayout().getLineCount());
+        // 没有产生新行的追加不请求layout
+        assertTrue(incrementalLayouts < plainLayouts);
+    }
+
+    public void testAppendWithinLineSkipsLayoutRequest() {
+        final DetachedUIContext context = new DetachedUIContext(getContext());
+        final TextUIElement element = createElement(context, true);
+        final StringBuilder text = new StringBuilder();
+        while (text.length() < 2000) {
+            text.append(CHUNK);
+        }
+        // 最后一段很短，追加一个字符一定不会产生新行
+        text.append("\nend");
+        element.setText(text.toString());
+        layout(element);
+        context.consumeLayoutRequest();
+
+        // 已经占满可用宽度，追加的文字没有产生新行时大小不变
+        final int lineCount = element.getLayout().getLineCount();
+        final int height = element.getMeasuredHeight();
+        assertEquals(MAX_WIDTH, element.getMeasuredWidth());
+
+        element.setText(text.append('.').toString());
+        assertEquals(lineCount, element.getLayout().getLineCount());
+        assertFalse(context.consumeLayoutRequest());
+        assertFalse(element.isLayoutRequested());
+        assertEquals(MAX_WIDTH, element.getMeasuredWidth());
+        assertEquals(height, element.getMeasuredHeight());
+    }
+}
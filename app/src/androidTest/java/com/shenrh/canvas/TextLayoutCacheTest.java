@@ -0,0 +1,92 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.shenrh.canvas;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.test.AndroidTestCase;
+import android.text.Layout;
+import android.view.View.MeasureSpec;
+
+/**
+ * 共享同一个缓存Layout的element按各自的paint绘制
+ */
+public class TextLayoutCacheTest extends AndroidTestCase {
+    private static final int WIDTH = 400;
+    private static final int HEIGHT = 100;
+
+    private Bitmap mBitmap;
+    private Canvas mCanvas;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        TextLayoutCache.clear();
+        mBitmap = Bitmap.createBitmap(WIDTH, HEIGHT, Bitmap.Config.ARGB_8888);
+        mCanvas = new Canvas(mBitmap);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mBitmap.recycle();
+        TextLayoutCache.clear();
+        super.tearDown();
+    }
+
+    private TextUIElement newElement() {
+        final TextUIElement element = new TextUIElement(new DetachedUIContext(getContext()));
+        element.setTextSize(20);
+        element.setText("shared layout");
+        return element;
+    }
+
+    private static void layout(TextUIElement element) {
+        DetachedUIContext.layoutElement(element, MeasureSpec.makeMeasureSpec(WIDTH, MeasureSpec.EXACTLY),
+                MeasureSpec.makeMeasureSpec(HEIGHT, MeasureSpec.EXACTLY));
+    }
+
+    public void testSharedLayoutDrawsWithOwnPaint() {
+        final TextUIElement plain = newElement();
+        plain.setTextColor(Color.RED);
+        layout(plain);
+
+        final TextUIElement styled = newElement();
+        styled.setTextColor(Color.BLUE);
+        styled.getPaint().setStyle(Paint.Style.STROKE);
+        styled.getPaint().setStrokeWidth(3);
+        styled.setShadowLayer(2, 1, 1, Color.BLACK);
+        layout(styled);
+
+        final Layout shared = plain.getLayout();
+        assertSame(shared, styled.getLayout());
+        assertNotSame(plain.getPaint(), shared.getPaint());
+
+        styled.draw(mCanvas);
+        assertEquals(Color.BLUE, shared.getPaint().getColor());
+        assertEquals(Paint.Style.STROKE, shared.getPaint().getStyle());
+        assertEquals(3f, shared.getPaint().getStrokeWidth());
+
+        plain.draw(mCanvas);
+        assertEquals(Color.RED, shared.getPaint().getColor());
+        assertEquals(Paint.Style.FILL, shared.getPaint().getStyle());
+        assertEquals(0f, shared.getPaint().getStrokeWidth());
+
+        // 自己的paint不被其他element的绘制改变
+        assertEquals(Color.BLUE, styled.getPaint().getColor());
+        assertEquals(Paint.Style.STROKE, styled.getPaint().getStyle());
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.shenrh.canvas;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.os.Debug;
+import android.test.AndroidTestCase;
+import android.view.Gravity;
+import android.view.View.MeasureSpec;
+
+/**
+ * 文字element重复绘制和重新计算gravity偏移时不分配对象
+ */
+@SuppressWarnings("deprecation")
+public class TextUIElementAllocationTest extends AndroidTestCase {
+    private static final int WIDTH = 400;
+    private static final int HEIGHT = 200;
+    private static final int ITERATIONS = 100;
+
+    private TextUIElement mElement;
+    private Bitmap mBitmap;
+    private Canvas mCanvas;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mElement = new TextUIElement(new DetachedUIContext(getContext()));
+        mElement.setTextSize(20);
+        mElement.setGravity(Gravity.CENTER);
+        mElement.setText("Hello world\nzero allocation draw");
+        DetachedUIContext.layoutElement(mElement, MeasureSpec.makeMeasureSpec(WIDTH, MeasureSpec.EXACTLY),
+                MeasureSpec.makeMeasureSpec(HEIGHT, MeasureSpec.EXACTLY));
+
+        mBitmap = Bitmap.createBitmap(WIDTH, HEIGHT, Bitmap.Config.ARGB_8888);
+        mCanvas = new Canvas(mBitmap);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mBitmap.recycle();
+        super.tearDown();
+    }
+
+    private static void startCounting() {
+        Debug.resetThreadAllocCount();
+        Debug.startAllocCounting();
+    }
+
+    private static int stopCounting() {
+        Debug.stopAllocCounting();
+        return Debug.getThreadAllocCount();
+    }
+
+    public void testDrawDoesNotAllocate() {
+        // 预热，首次绘制可能初始化Layout内部的缓存
+        mElement.draw(mCanvas);
+
+        startCounting();
+        for (int i = 0; i < ITERATIONS; i++) {
+            mElement.draw(mCanvas);
+        }
+        assertEquals(0, stopCounting());
+    }
+
+    public void testGravityOffsetDoesNotAllocate() {
+        // 位置变化、大小不变时只在onLayout中重新计算gravity偏移
+        mElement.layout(10, 0, WIDTH + 10, HEIGHT);
+        mElement.layout(0, 0, WIDTH, HEIGHT);
+        mElement.draw(mCanvas);
+
+        startCounting();
+        for (int i = 0; i < ITERATIONS; i++) {
+            mElement.layout(10, 0, WIDTH + 10, HEIGHT);
+            mElement.layout(0, 0, WIDTH, HEIGHT);
+            mElement.draw(mCanvas);
+        }
+        assertEquals(0, stopCounting());
+    }
+}
@@ -0,0 +1,100 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.shenrh.canvas;
+
+import android.test.AndroidTestCase;
+import android.view.View.MeasureSpec;
+import android.view.ViewGroup.LayoutParams;
+import android.view.ViewGroup.MarginLayoutParams;
+
+public class UIElementMeasureCacheTest extends AndroidTestCase {
+
+    private static class CountingElement extends UIElement {
+        int mMeasureCount;
+        int mLastWidthSpec;
+
+        CountingElement(UIContext host) {
+            super(host);
+        }
+
+        @Override
+        protected void onMeasure(int widthMeasureSpec, int heightMeasureSpec) {
+            mMeasureCount++;
+            mLastWidthSpec = widthMeasureSpec;
+            setMeasuredDimension(MeasureSpec.getSize(widthMeasureSpec), 10);
+        }
+    }
+
+    public void testCacheHitMeasuresBeforeLayout() {
+        final CountingElement element = new CountingElement(new DetachedUIContext(getContext()));
+        final int specA = MeasureSpec.makeMeasureSpec(100, MeasureSpec.EXACTLY);
+        final int specB = MeasureSpec.makeMeasureSpec(200, MeasureSpec.EXACTLY);
+        final int heightSpec = MeasureSpec.makeMeasureSpec(0, MeasureSpec.UNSPECIFIED);
+
+        element.measure(specA, heightSpec);
+        element.measure(specB, heightSpec);
+        assertEquals(2, element.mMeasureCount);
+
+        // A->B->A命中缓存，不调用onMeasure
+        element.measure(specA, heightSpec);
+        assertEquals(2, element.mMeasureCount);
+        assertEquals(100, element.getMeasuredWidth());
+        assertEquals(specB, element.mLastWidthSpec);
+
+        // layout前按A补一次onMeasure
+        element.layout(0, 0, element.getMeasuredWidth(), element.getMeasuredHeight());
+        assertEquals(3, element.mMeasureCount);
+        assertEquals(specA, element.mLastWidthSpec);
+
+        // 不会重复补
+        element.layout(0, 0, element.getMeasuredWidth(), element.getMeasuredHeight());
+        assertEquals(3, element.mMeasureCount);
+    }
+
+    public void testLayoutRequestedWhileDetachedMeasuresAfterReattach() {
+        final UIView view = new UIView(getContext(), null);
+        final LinearLayoutUIElement root = new LinearLayoutUIElement(view);
+        root.setOrientation(LinearLayoutUIElement.VERTICAL);
+        final CountingElement child = new CountingElement(view);
+        child.setLayoutParams(new MarginLayoutParams(LayoutParams.MATCH_PARENT, LayoutParams.WRAP_CONTENT));
+        root.addElement(child);
+        view.setUIElement(root);
+        view.onAttachedToWindow();
+
+        final int widthSpec = MeasureSpec.makeMeasureSpec(100, MeasureSpec.EXACTLY);
+        final int heightSpec = MeasureSpec.makeMeasureSpec(0, MeasureSpec.UNSPECIFIED);
+        measureAndLayout(view, widthSpec, heightSpec);
+        assertFalse(root.isLayoutRequested());
+        final int measureCount = child.mMeasureCount;
+
+        // detach期间修改，请求只能标记到根element
+        view.onDetachedFromWindow();
+        child.requestLayout();
+        assertTrue(root.isLayoutRequested());
+
+        view.onAttachedToWindow();
+        assertTrue(view.isLayoutRequested());
+
+        measureAndLayout(view, widthSpec, heightSpec);
+        assertEquals(measureCount + 1, child.mMeasureCount);
+        assertFalse(root.isLayoutRequested());
+        assertFalse(child.isLayoutRequested());
+    }
+
+    private static void measureAndLayout(UIView view, int widthSpec, int heightSpec) {
+        view.measure(widthSpec, heightSpec);
+        view.layout(0, 0, view.getMeasuredWidth(), view.getMeasuredHeight());
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.shenrh.canvas;
+
+import android.test.AndroidTestCase;
+import android.view.View.MeasureSpec;
+import android.view.ViewGroup.LayoutParams;
+import android.view.ViewGroup.MarginLayoutParams;
+
+public class UIFrameSchedulerTest extends AndroidTestCase {
+
+    private static class FixedElement extends UIElement {
+        FixedElement(UIContext host) {
+            super(host);
+        }
+
+        @Override
+        protected void onMeasure(int widthMeasureSpec, int heightMeasureSpec) {
+            setMeasuredDimension(MeasureSpec.getSize(widthMeasureSpec), 10);
+        }
+    }
+
+    private UIView mView;
+    private FixedElement mChild;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mView = new UIView(getContext(), null);
+        final LinearLayoutUIElement root = new LinearLayoutUIElement(mView);
+        root.setOrientation(LinearLayoutUIElement.VERTICAL);
+        mChild = new FixedElement(mView);
+        mChild.setLayoutParams(new MarginLayoutParams(LayoutParams.MATCH_PARENT, LayoutParams.WRAP_CONTENT));
+        root.addElement(mChild);
+        mView.setUIElement(root);
+        mView.onAttachedToWindow();
+        measureAndLayout();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mView.onDetachedFromWindow();
+        super.tearDown();
+    }
+
+    private void measureAndLayout() {
+        mView.measure(MeasureSpec.makeMeasureSpec(100, MeasureSpec.EXACTLY),
+                MeasureSpec.makeMeasureSpec(0, MeasureSpec.UNSPECIFIED));
+        mView.layout(0, 0, mView.getMeasuredWidth(), mView.getMeasuredHeight());
+    }
+
+    /**
+     * 被复用的行在getView中改了数据，返回前就要能看到layout请求
+     */
+    public void testElementLayoutRequestIsImmediateWhenAttached() {
+        assertFalse(mView.isLayoutRequested());
+
+        mChild.requestLayout();
+        assertTrue(mView.isLayoutRequested());
+        assertFalse(mView.getFrameScheduler().hasPendingRequests());
+    }
+
+    public void testBatchDefersLayoutRequestUntilEnd() {
+        mView.beginUpdate();
+        mChild.requestLayout();
+        mChild.requestLayout();
+        assertFalse(mView.isLayoutRequested());
+
+        mView.endUpdate();
+        assertTrue(mView.isLayoutRequested());
+        assertFalse(mView.getFrameScheduler().hasPendingRequests());
+    }
+
+    public void testDetachKeepsPendingBoundaryLayout() {
+        mView.setLayoutBoundary(true);
+
+        mChild.requestLayout();
+        assertFalse(mView.isLayoutRequested());
+        assertTrue(mView.getFrameScheduler().hasPendingRequests());
+
+        mView.onDetachedFromWindow();
+        assertTrue(mView.isLayoutRequested());
+        assertFalse(mView.getFrameScheduler().hasPendingRequests());
+
+        // 重新attach后measure一次，之后的请求还能传到UIView
+        mView.onAttachedToWindow();
+        mView.setLayoutBoundary(false);
+        measureAndLayout();
+        assertFalse(mChild.isLayoutRequested());
+        mChild.requestLayout();
+        assertTrue(mView.isLayoutRequested());
+    }
+}
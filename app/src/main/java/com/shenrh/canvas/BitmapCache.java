@@ -0,0 +1,234 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.shenrh.canvas;
+
+import android.graphics.Bitmap;
+import android.support.v4.util.LruCache;
+import android.widget.ImageView.ScaleType;
+
+/**
+ * 进程内共享的解码结果缓存，按字节数限制大小，默认为最大内存的1/8
+ *
+ * 使用中的bitmap通过引用计数保护，attach的element持有引用，被淘汰时还有引用的bitmap等最后一个引用释放后
+ * 才放入{@link BitmapPool}复用
+ *
+ * @author shenrh
+ *
+ */
+public final class BitmapCache {
+    private static final int DEFAULT_MEMORY_FRACTION = 8;
+
+    private static volatile LruCache<Key, Entry> sCache = createCache(defaultMaxSize());
+
+    private BitmapCache() {
+    }
+
+    /* package */static final class Key {
+        private final ImageSource mSource;
+        private final int mWidth;
+        private final int mHeight;
+        private final Bitmap.Config mConfig;
+        private final ScaleType mScaleType;
+        private final int mHashCode;
+
+        Key(ImageSource source, int width, int height, Bitmap.Config config, ScaleType scaleType) {
+            mSource = source;
+            mWidth = width;
+            mHeight = height;
+            mConfig = config;
+            mScaleType = scaleType;
+
+            int hash = source.hashCode();
+            hash = 31 * hash + width;
+            hash = 31 * hash + height;
+            hash = 31 * hash + config.hashCode();
+            hash = 31 * hash + scaleType.hashCode();
+            mHashCode = hash;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+
+            final Key other = (Key) o;
+            return mWidth == other.mWidth && mHeight == other.mHeight && mConfig == other.mConfig && mScaleType == other.mScaleType
+                    && mSource.equals(other.mSource);
+        }
+
+        @Override
+        public int hashCode() {
+            return mHashCode;
+        }
+    }
+
+    /**
+     * 缓存中的bitmap，通过{@link BitmapCache#acquire(Key)}或{@link BitmapCache#put(Key, Bitmap)}获得的引用
+     * 需要调用{@link BitmapCache#release(Entry)}释放
+     */
+    /* package */static final class Entry {
+        private final Bitmap mBitmap;
+        private int mRefCount;
+        private boolean mRemoved;
+        private boolean mRecycled;
+
+        Entry(Bitmap bitmap) {
+            mBitmap = bitmap;
+        }
+
+        Bitmap getBitmap() {
+            return mBitmap;
+        }
+    }
+
+    private static int defaultMaxSize() {
+        return (int) Math.min(Integer.MAX_VALUE, Runtime.getRuntime().maxMemory() / DEFAULT_MEMORY_FRACTION);
+    }
+
+    private static LruCache<Key, Entry> createCache(int maxBytes) {
+        return new LruCache<Key, Entry>(maxBytes) {
+            @Override
+            protected int sizeOf(Key key, Entry entry) {
+                return entry.mBitmap.getRowBytes() * entry.mBitmap.getHeight();
+            }
+
+            @Override
+            protected void entryRemoved(boolean evicted, Key key, Entry oldValue, Entry newValue) {
+                if (oldValue != newValue) {
+                    onRemoved(oldValue);
+                }
+            }
+        };
+    }
+
+    /**
+     * 修改最大字节数，会清空缓存
+     *
+     * @param maxBytes
+     */
+    public static void setMaxSize(int maxBytes) {
+        final LruCache<Key, Entry> old = sCache;
+        sCache = createCache(maxBytes);
+        old.evictAll();
+    }
+
+    /**
+     * 命中时增加引用计数
+     *
+     * @return 没有缓存时返回null
+     */
+    /* package */static Entry acquire(Key key) {
+        final Entry entry = sCache.get(key);
+        if (entry == null || !acquire(entry)) {
+            return null;
+        }
+        return entry;
+    }
+
+    /**
+     * 重新持有已经释放过的entry，例如element重新attach
+     *
+     * @return bitmap已经被回收时返回false
+     */
+    /* package */static boolean acquire(Entry entry) {
+        synchronized (entry) {
+            if (entry.mRecycled) {
+                return false;
+            }
+            entry.mRefCount++;
+            return true;
+        }
+    }
+
+    /**
+     * 放入缓存，返回的entry已经持有一个引用
+     */
+    /* package */static Entry put(Key key, Bitmap bitmap) {
+        final Entry entry = new Entry(bitmap);
+        entry.mRefCount = 1;
+        sCache.put(key, entry);
+        return entry;
+    }
+
+    /* package */static void release(Entry entry) {
+        synchronized (entry) {
+            if (entry.mRefCount <= 0) {
+                return;
+            }
+            entry.mRefCount--;
+            recycleIfUnused(entry);
+        }
+    }
+
+    private static void onRemoved(Entry entry) {
+        synchronized (entry) {
+            entry.mRemoved = true;
+            recycleIfUnused(entry);
+        }
+    }
+
+    private static void recycleIfUnused(Entry entry) {
+        if (entry.mRemoved && entry.mRefCount == 0 && !entry.mRecycled) {
+            entry.mRecycled = true;
+            BitmapPool.put(entry.mBitmap);
+        }
+    }
+
+    /**
+     * 清空缓存，还在使用的bitmap在释放后放入BitmapPool
+     */
+    public static void clear() {
+        sCache.evictAll();
+    }
+
+    /**
+     * @param maxBytes 缩小到的字节数
+     */
+    public static void trimToSize(int maxBytes) {
+        sCache.trimToSize(maxBytes);
+    }
+
+    public static int hitCount() {
+        return sCache.hitCount();
+    }
+
+    public static int missCount() {
+        return sCache.missCount();
+    }
+
+    public static float hitRate() {
+        final LruCache<Key, Entry> cache = sCache;
+        final int hits = cache.hitCount();
+        final int total = hits + cache.missCount();
+        return total > 0 ? (float) hits / total : 0;
+    }
+
+    /**
+     * 缓存中bitmap占用的字节数
+     *
+     * @return
+     */
+    public static int size() {
+        return sCache.size();
+    }
+
+    public static int maxSize() {
+        return sCache.maxSize();
+    }
+}
@@ -0,0 +1,208 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.shenrh.canvas;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedList;
+import android.content.ComponentCallbacks2;
+import android.graphics.Bitmap;
+
+/**
+ * 按宽、高和格式分组的可复用bitmap，{@link ImageLoader}解码时通过inBitmap或作为缩放目标复用，
+ * 避免快速滚动时每次解码都分配新的bitmap
+ *
+ * 只接收mutable的bitmap，超过字节上限时先丢弃最早放入的。可以在Application的onTrimMemory中调用
+ * {@link #trimMemory(int)}
+ *
+ * @author shenrh
+ *
+ */
+public final class BitmapPool {
+    private static final int DEFAULT_MEMORY_FRACTION = 16;
+
+    private static final HashMap<Key, ArrayList<Bitmap>> sBuckets = new HashMap<Key, ArrayList<Bitmap>>();
+    // 所有bitmap按放入的顺序
+    private static final LinkedList<Bitmap> sOrder = new LinkedList<Bitmap>();
+
+    private static int sMaxSize = (int) Math.min(Integer.MAX_VALUE, Runtime.getRuntime().maxMemory() / DEFAULT_MEMORY_FRACTION);
+    private static int sSize;
+
+    private static int sHitCount;
+    private static int sMissCount;
+    private static int sAllocationCount;
+    private static long sAllocatedBytes;
+
+    private BitmapPool() {
+    }
+
+    private static final class Key {
+        private final int mWidth;
+        private final int mHeight;
+        private final Bitmap.Config mConfig;
+
+        Key(int width, int height, Bitmap.Config config) {
+            mWidth = width;
+            mHeight = height;
+            mConfig = config;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+
+            final Key other = (Key) o;
+            return mWidth == other.mWidth && mHeight == other.mHeight && mConfig == other.mConfig;
+        }
+
+        @Override
+        public int hashCode() {
+            return (31 * mWidth + mHeight) * 31 + mConfig.hashCode();
+        }
+    }
+
+    private static int sizeOf(Bitmap bitmap) {
+        return bitmap.getRowBytes() * bitmap.getHeight();
+    }
+
+    /**
+     * 取出尺寸和格式完全一致的bitmap，内容没有清除
+     *
+     * @return 没有时返回null
+     */
+    /* package */static synchronized Bitmap get(int width, int height, Bitmap.Config config) {
+        final ArrayList<Bitmap> bucket = sBuckets.get(new Key(width, height, config));
+        if (bucket == null || bucket.isEmpty()) {
+            sMissCount++;
+            return null;
+        }
+
+        final Bitmap bitmap = bucket.remove(bucket.size() - 1);
+        sOrder.remove(bitmap);
+        sSize -= sizeOf(bitmap);
+        sHitCount++;
+        return bitmap;
+    }
+
+    /**
+     * 不再使用的bitmap，不能复用或超过上限时直接回收
+     *
+     * @param bitmap
+     */
+    /* package */static synchronized void put(Bitmap bitmap) {
+        if (bitmap.isRecycled()) {
+            return;
+        }
+
+        final int size = sizeOf(bitmap);
+        if (!bitmap.isMutable() || bitmap.getConfig() == null || size > sMaxSize) {
+            bitmap.recycle();
+            return;
+        }
+
+        final Key key = new Key(bitmap.getWidth(), bitmap.getHeight(), bitmap.getConfig());
+        ArrayList<Bitmap> bucket = sBuckets.get(key);
+        if (bucket == null) {
+            bucket = new ArrayList<Bitmap>();
+            sBuckets.put(key, bucket);
+        }
+        bucket.add(bitmap);
+        sOrder.add(bitmap);
+        sSize += size;
+
+        trimToSize(sMaxSize);
+    }
+
+    /**
+     * 解码时新分配了bitmap，用于统计
+     */
+    /* package */static synchronized void recordAllocation(Bitmap bitmap) {
+        sAllocationCount++;
+        sAllocatedBytes += sizeOf(bitmap);
+    }
+
+    public static synchronized void trimToSize(int maxBytes) {
+        while (sSize > maxBytes && !sOrder.isEmpty()) {
+            final Bitmap bitmap = sOrder.removeFirst();
+            final Key key = new Key(bitmap.getWidth(), bitmap.getHeight(), bitmap.getConfig());
+            final ArrayList<Bitmap> bucket = sBuckets.get(key);
+            bucket.remove(bitmap);
+            if (bucket.isEmpty()) {
+                sBuckets.remove(key);
+            }
+
+            sSize -= sizeOf(bitmap);
+            bitmap.recycle();
+        }
+    }
+
+    /**
+     * 按{@link ComponentCallbacks2}的level释放，进入后台时减半，内存紧张时清空
+     *
+     * @param level
+     */
+    public static void trimMemory(int level) {
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_MODERATE) {
+            clear();
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_BACKGROUND) {
+            trimToSize(size() / 2);
+        }
+    }
+
+    public static void clear() {
+        trimToSize(0);
+    }
+
+    public static synchronized void setMaxSize(int maxBytes) {
+        sMaxSize = maxBytes;
+        trimToSize(maxBytes);
+    }
+
+    public static synchronized int maxSize() {
+        return sMaxSize;
+    }
+
+    /**
+     * 池中bitmap占用的字节数
+     *
+     * @return
+     */
+    public static synchronized int size() {
+        return sSize;
+    }
+
+    public static synchronized int hitCount() {
+        return sHitCount;
+    }
+
+    public static synchronized int missCount() {
+        return sMissCount;
+    }
+
+    /**
+     * 解码时没有复用而新分配的bitmap数量
+     *
+     * @return
+     */
+    public static synchronized int allocationCount() {
+        return sAllocationCount;
+    }
+
+    public static synchronized long allocatedBytes() {
+        return sAllocatedBytes;
+    }
+}
@@ -0,0 +1,162 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.shenrh.canvas;
+
+import android.graphics.Typeface;
+import android.support.v4.util.LruCache;
+import android.text.BoringLayout;
+import android.text.TextPaint;
+import android.util.FloatMath;
+
+/**
+ * 进程内共享的BoringLayout.Metrics缓存，key为文字和影响测量的paint属性，不是boring的结果也会缓存
+ *
+ * 返回的Metrics是共享的，调用者不能修改，也不能作为BoringLayout.isBoring的复用参数
+ *
+ * API 18的BoringLayout把U+0590之后的字符都当作需要考虑方向，CJK文字永远不是boring。这里只排除可能影响方向的字符
+ * （RTL文字、方向控制符和代理对），和较新平台的TextUtils.couldAffectRtl一致，CJK等从左到右的文字也可以使用BoringLayout
+ *
+ * @author shenrh
+ *
+ */
+public final class BoringMetricsCache {
+    private static final int DEFAULT_MAX_SIZE = 1024;
+
+    // 缓存中表示不是boring
+    private static final BoringLayout.Metrics NOT_BORING = new BoringLayout.Metrics();
+
+    private static volatile LruCache<Key, BoringLayout.Metrics> sCache = new LruCache<Key, BoringLayout.Metrics>(DEFAULT_MAX_SIZE);
+
+    private BoringMetricsCache() {
+    }
+
+    /**
+     * 和BoringLayout.isBoring(text, paint)的结果一致，但CJK等不影响方向的非ASCII文字也是boring
+     *
+     * @param text
+     * @param paint
+     * @return 不是boring时返回null
+     */
+    public static BoringLayout.Metrics isBoring(String text, TextPaint paint) {
+        final Key key = new Key(text, paint);
+        BoringLayout.Metrics metrics = sCache.get(key);
+        if (metrics == null) {
+            metrics = measure(text, paint);
+            sCache.put(key, metrics != null ? metrics : NOT_BORING);
+        }
+
+        return metrics == NOT_BORING ? null : metrics;
+    }
+
+    /**
+     * 遇到换行、tab或可能影响方向的字符时直接判定为不是boring，其他情况直接用paint测量宽度
+     */
+    private static BoringLayout.Metrics measure(String text, TextPaint paint) {
+        final int length = text.length();
+        for (int i = 0; i < length; i++) {
+            final char c = text.charAt(i);
+            if (c == '\n' || c == '\t' || couldAffectRtl(c)) {
+                return null;
+            }
+        }
+
+        final BoringLayout.Metrics metrics = new BoringLayout.Metrics();
+        paint.getFontMetricsInt(metrics);
+        metrics.width = (int) FloatMath.ceil(paint.measureText(text));
+        return metrics;
+    }
+
+    /**
+     * RTL文字所在的区块、方向控制符和代理对，和TextUtils.couldAffectRtl一致
+     */
+    /* package */static boolean couldAffectRtl(char c) {
+        return (0x0590 <= c && c <= 0x08FF) // Hebrew、Arabic等RTL文字
+                || c == 0x200E || c == 0x200F // LRM, RLM
+                || (0x202A <= c && c <= 0x202E) // LRE, RLE, PDF, LRO, RLO
+                || (0x2066 <= c && c <= 0x2069) // LRI, RLI, FSI, PDI
+                || (0xD800 <= c && c <= 0xDFFF) // 代理对中可能有RTL字符
+                || (0xFB1D <= c && c <= 0xFDFF) // Hebrew和Arabic的表现形式
+                || (0xFE70 <= c && c <= 0xFEFE); // Arabic表现形式B
+    }
+
+    public static synchronized void setMaxSize(int maxSize) {
+        sCache.evictAll();
+        sCache = new LruCache<Key, BoringLayout.Metrics>(maxSize);
+    }
+
+    public static void clear() {
+        sCache.evictAll();
+    }
+
+    public static int hitCount() {
+        return sCache.hitCount();
+    }
+
+    public static int missCount() {
+        return sCache.missCount();
+    }
+
+    public static int size() {
+        return sCache.size();
+    }
+
+    private static final class Key {
+        private final String mText;
+        private final float mTextSize;
+        private final float mTextScaleX;
+        private final float mTextSkewX;
+        private final Typeface mTypeface;
+        private final int mFlags;
+        private final int mHashCode;
+
+        Key(String text, TextPaint paint) {
+            mText = text;
+            mTextSize = paint.getTextSize();
+            mTextScaleX = paint.getTextScaleX();
+            mTextSkewX = paint.getTextSkewX();
+            mTypeface = paint.getTypeface();
+            mFlags = paint.getFlags();
+
+            int result = mText.hashCode();
+            result = 31 * result + Float.floatToIntBits(mTextSize);
+            result = 31 * result + Float.floatToIntBits(mTextScaleX);
+            result = 31 * result + Float.floatToIntBits(mTextSkewX);
+            result = 31 * result + (mTypeface != null ? mTypeface.hashCode() : 0);
+            result = 31 * result + mFlags;
+            mHashCode = result;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+
+            final Key other = (Key) o;
+            return mHashCode == other.mHashCode && mFlags == other.mFlags && Float.compare(mTextSize, other.mTextSize) == 0
+                    && Float.compare(mTextScaleX, other.mTextScaleX) == 0 && Float.compare(mTextSkewX, other.mTextSkewX) == 0
+                    && (mTypeface == null ? other.mTypeface == null : mTypeface.equals(other.mTypeface))
+                    && mText.equals(other.mText);
+        }
+
+        @Override
+        public int hashCode() {
+            return mHashCode;
+        }
+    }
+}
@@ -0,0 +1,419 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.shenrh.canvas;
+
+import java.util.ArrayList;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.text.Layout;
+import android.text.StaticLayout;
+import android.text.TextPaint;
+import android.text.TextUtils;
+
+/**
+ * 长文本的分块Layout，文字按段落分成若干块，只在绘制到时才对块断行
+ *
+ * 构造时只按字数估算每块的高度，首次绘制后在后台线程对所有块断行，只保留每块的行数和高度，
+ * 完成后在ui线程一次性替换估算值，之后总高度是准确的，不再变化。后台测量完成之前，绘制到的块同步断行，
+ * 高度的修正只移动它后面的块。StaticLayout超过数量限制后释放，行数和高度一直保留。
+ * 超长的段落在单词边界或字数上限处拆成多块，单块的断行成本有上限
+ *
+ * 后台测量完成前跳过了还没断行的块（例如直接滚动到末尾）时，替换估算值会移动可见内容，只会发生一次
+ *
+ * @author shenrh
+ *
+ */
+final class ChunkedTextLayout {
+    // 每块至少包含的字数，块尽量在段落结尾处分开
+    private static final int CHUNK_SIZE = 2048;
+    // 每块最多包含的字数，超过时在段落中间拆开
+    private static final int MAX_CHUNK_SIZE = 4096;
+    // 段落中间拆开时向前查找空白字符的范围，找不到时直接按字数拆开
+    private static final int SPLIT_SEARCH_LENGTH = 256;
+    // 同时保留的StaticLayout数量
+    private static final int MAX_MATERIALIZED = 4;
+    private static final int SAMPLE_LENGTH = 64;
+    private static final long KEEP_ALIVE_SECONDS = 30;
+
+    private static final Handler sHandler = new Handler(Looper.getMainLooper());
+    private static ThreadPoolExecutor sExecutor;
+
+    private final CharSequence mText;
+    private final TextPaint mPaint;
+    private final int mWidth;
+    private final Layout.Alignment mAlignment;
+    private final float mSpacingMult;
+    private final float mSpacingAdd;
+    private final int mExtraTop;
+    private final int mExtraBottom;
+
+    private final ArrayList<Chunk> mChunks = new ArrayList<Chunk>();
+    private final ArrayList<Chunk> mMaterialized = new ArrayList<Chunk>(MAX_MATERIALIZED + 1);
+    private int mHeight;
+    private int mLineCount;
+
+    // 后台测量使用paint的拷贝，ui线程绘制时会修改mPaint的颜色
+    private final TextPaint mMeasurePaint;
+    private Future<?> mMeasureFuture;
+    private volatile boolean mMeasureCancelled = false;
+    private boolean mAllMeasured = false;
+
+    private final float mLineHeight;
+    private final float mAverageCharWidth;
+
+    private static final class Chunk {
+        final int mStart;
+        final int mEnd;
+        final int mParagraphCount;
+        int mTop;
+        int mHeight;
+        int mLineCount;
+        boolean mMeasured;
+        StaticLayout mLayout;
+
+        Chunk(int start, int end, int paragraphCount) {
+            mStart = start;
+            mEnd = end;
+            mParagraphCount = paragraphCount;
+        }
+    }
+
+    ChunkedTextLayout(CharSequence text, TextPaint paint, int width, Layout.Alignment alignment, float spacingMult, float spacingAdd,
+            boolean includePad) {
+        mText = text;
+        mPaint = paint;
+        mMeasurePaint = new TextPaint(paint);
+        mWidth = Math.max(1, width);
+        mAlignment = alignment;
+        mSpacingMult = spacingMult;
+        mSpacingAdd = spacingAdd;
+
+        final Paint.FontMetricsInt fm = paint.getFontMetricsInt();
+        mExtraTop = includePad ? fm.ascent - fm.top : 0;
+        mExtraBottom = includePad ? fm.bottom - fm.descent : 0;
+        mLineHeight = (fm.descent - fm.ascent) * spacingMult + spacingAdd;
+
+        final int sampleLength = Math.min(SAMPLE_LENGTH, text.length());
+        mAverageCharWidth = sampleLength > 0 ? paint.measureText(text, 0, sampleLength) / sampleLength : 0;
+
+        splitChunks();
+    }
+
+    /**
+     * 只扫描换行符，不做测量
+     */
+    private void splitChunks() {
+        final int length = mText.length();
+        int chunkStart = 0;
+        int paragraphs = 0;
+        int top = 0;
+        int start = 0;
+
+        while (true) {
+            final int newline = TextUtils.indexOf(mText, '\n', start);
+            final int end = newline < 0 ? length : newline + 1;
+            paragraphs++;
+
+            if (end - chunkStart > MAX_CHUNK_SIZE) {
+                // 之前累积的段落先单独成块，再拆当前的长段落
+                if (start > chunkStart) {
+                    top = addChunk(chunkStart, start, paragraphs - 1, top);
+                    chunkStart = start;
+                    paragraphs = 1;
+                }
+                while (end - chunkStart > MAX_CHUNK_SIZE) {
+                    final int split = findSplit(chunkStart, chunkStart + MAX_CHUNK_SIZE);
+                    top = addChunk(chunkStart, split, 1, top);
+                    chunkStart = split;
+                }
+            }
+
+            if (newline < 0 || end - chunkStart >= CHUNK_SIZE) {
+                top = addChunk(chunkStart, end, paragraphs, top);
+                chunkStart = end;
+                paragraphs = 0;
+            }
+
+            if (newline < 0) {
+                break;
+            }
+            start = end;
+        }
+
+        mHeight = top;
+    }
+
+    private int addChunk(int start, int end, int paragraphCount, int top) {
+        final Chunk chunk = new Chunk(start, end, paragraphCount);
+        chunk.mTop = top;
+        chunk.mLineCount = estimateLineCount(chunk);
+        chunk.mHeight = Math.round(chunk.mLineCount * mLineHeight);
+        mChunks.add(chunk);
+        mLineCount += chunk.mLineCount;
+        return top + chunk.mHeight;
+    }
+
+    /**
+     * 在(start, limit]中靠近limit的空白字符之后拆开，没有空白时按字数拆开，不拆开代理对
+     */
+    private int findSplit(int start, int limit) {
+        final int searchEnd = Math.max(start + 1, limit - SPLIT_SEARCH_LENGTH);
+        for (int i = limit; i > searchEnd; i--) {
+            if (Character.isWhitespace(mText.charAt(i - 1))) {
+                return i;
+            }
+        }
+
+        if (Character.isHighSurrogate(mText.charAt(limit - 1)) && limit - 1 > start) {
+            return limit - 1;
+        }
+        return limit;
+    }
+
+    private int estimateLineCount(Chunk chunk) {
+        final float wrappedLines = (chunk.mEnd - chunk.mStart) * mAverageCharWidth / mWidth;
+        return Math.max(chunk.mParagraphCount, (int) Math.ceil(wrappedLines + chunk.mParagraphCount * 0.5f));
+    }
+
+    boolean canReuse(CharSequence text, TextPaint paint, int width, Layout.Alignment alignment, float spacingMult, float spacingAdd) {
+        return mText == text && mPaint == paint && mWidth == width && mAlignment == alignment && mSpacingMult == spacingMult
+                && mSpacingAdd == spacingAdd;
+    }
+
+    int getWidth() {
+        return mWidth;
+    }
+
+    /**
+     * 总高度，{@link #isAllMeasured()}之前包括估算部分
+     */
+    int getHeight() {
+        return mExtraTop + mHeight + mExtraBottom;
+    }
+
+    /**
+     * 总行数，{@link #isAllMeasured()}之前包括估算部分
+     */
+    int getLineCount() {
+        return mLineCount;
+    }
+
+    boolean isAllMeasured() {
+        return mAllMeasured;
+    }
+
+    /**
+     * 在后台线程对所有块断行，完成后在ui线程用实际的行数和高度一次性替换估算值，再调用onMeasured。
+     * 重复调用只测量一次，只在ui线程调用。文字可能被修改时不测量，继续使用估算值
+     *
+     * @param onMeasured 高度确定后的回调，在ui线程执行
+     */
+    void measureInBackground(final Runnable onMeasured) {
+        if (mMeasureFuture != null || mAllMeasured || !(mText instanceof String)) {
+            return;
+        }
+
+        final int count = mChunks.size();
+        mMeasureFuture = getExecutor().submit(new Runnable() {
+            @Override
+            public void run() {
+                final int[] lineCounts = new int[count];
+                final int[] heights = new int[count];
+                for (int i = 0; i < count; i++) {
+                    if (mMeasureCancelled) {
+                        return;
+                    }
+                    final StaticLayout layout = newChunkLayout(i, mMeasurePaint);
+                    lineCounts[i] = layout.getLineCount();
+                    heights[i] = layout.getHeight();
+                }
+
+                sHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (mMeasureCancelled) {
+                            return;
+                        }
+                        applyMeasured(lineCounts, heights);
+                        onMeasured.run();
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * 不再使用时调用，停止还没完成的后台测量
+     */
+    void cancelMeasure() {
+        mMeasureCancelled = true;
+        if (mMeasureFuture != null) {
+            mMeasureFuture.cancel(false);
+        }
+    }
+
+    /**
+     * 一次遍历更新所有块的位置，已经同步断过行的块保持不变
+     */
+    private void applyMeasured(int[] lineCounts, int[] heights) {
+        int top = 0;
+        int lineCount = 0;
+        final int count = mChunks.size();
+        for (int i = 0; i < count; i++) {
+            final Chunk chunk = mChunks.get(i);
+            if (!chunk.mMeasured) {
+                chunk.mLineCount = lineCounts[i];
+                chunk.mHeight = heights[i];
+                chunk.mMeasured = true;
+            }
+            chunk.mTop = top;
+            top += chunk.mHeight;
+            lineCount += chunk.mLineCount;
+        }
+
+        mHeight = top;
+        mLineCount = lineCount;
+        mAllMeasured = true;
+    }
+
+    private static synchronized ThreadPoolExecutor getExecutor() {
+        if (sExecutor == null) {
+            sExecutor = new ThreadPoolExecutor(1, 1, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+                    new ThreadFactory() {
+                        @Override
+                        public Thread newThread(final Runnable r) {
+                            return new Thread(new Runnable() {
+                                @Override
+                                public void run() {
+                                    Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                                    r.run();
+                                }
+                            }, "ChunkedTextLayout");
+                        }
+                    });
+            sExecutor.allowCoreThreadTimeOut(true);
+        }
+        return sExecutor;
+    }
+
+    /**
+     * 绘制和[clipTop, clipBottom)相交的行，坐标为文字区域中的坐标，只对这些块断行。
+     * 块的实际高度和估算值不同时{@link #getHeight()}会变化，由调用方在绘制之后处理
+     */
+    void draw(Canvas canvas, int clipTop, int clipBottom) {
+        final int top = clipTop - mExtraTop;
+        final int bottom = clipBottom - mExtraTop;
+
+        int drawnCount = 0;
+        final int count = mChunks.size();
+        for (int i = findChunk(top); i < count; i++) {
+            final Chunk chunk = mChunks.get(i);
+            if (chunk.mTop >= bottom) {
+                break;
+            }
+
+            ensureLayout(i);
+            drawnCount++;
+
+            // 实际高度比估算值小时可能已经不在可见范围内
+            if (chunk.mTop + chunk.mHeight > top) {
+                final int saveCount = canvas.save();
+                canvas.translate(0, mExtraTop + chunk.mTop);
+                chunk.mLayout.draw(canvas);
+                canvas.restoreToCount(saveCount);
+            }
+        }
+
+        // 可见的块都在列表末尾，只释放之前的
+        final int maxMaterialized = Math.max(MAX_MATERIALIZED, drawnCount);
+        while (mMaterialized.size() > maxMaterialized) {
+            mMaterialized.remove(0).mLayout = null;
+        }
+    }
+
+    /**
+     * 包含y的块，y为块坐标
+     */
+    private int findChunk(int y) {
+        int low = 0;
+        int high = mChunks.size() - 1;
+        while (low < high) {
+            final int mid = (low + high + 1) >>> 1;
+            if (mChunks.get(mid).mTop <= y) {
+                low = mid;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * 保证块已经断行，高度和估算值不同时更新后面块的位置
+     */
+    private void ensureLayout(int index) {
+        final Chunk chunk = mChunks.get(index);
+        if (chunk.mLayout != null) {
+            mMaterialized.remove(chunk);
+            mMaterialized.add(chunk);
+            return;
+        }
+
+        chunk.mLayout = newChunkLayout(index, mPaint);
+
+        mMaterialized.add(chunk);
+
+        if (chunk.mMeasured) {
+            return;
+        }
+        chunk.mMeasured = true;
+
+        mLineCount += chunk.mLayout.getLineCount() - chunk.mLineCount;
+        chunk.mLineCount = chunk.mLayout.getLineCount();
+
+        final int delta = chunk.mLayout.getHeight() - chunk.mHeight;
+        if (delta == 0) {
+            return;
+        }
+
+        chunk.mHeight += delta;
+        for (int i = index + 1; i < mChunks.size(); i++) {
+            mChunks.get(i).mTop += delta;
+        }
+        mHeight += delta;
+    }
+
+    /**
+     * 块的边界在构造后不再变化，可以在任意线程调用
+     */
+    private StaticLayout newChunkLayout(int index, TextPaint paint) {
+        final Chunk chunk = mChunks.get(index);
+        // 中间的块不包括结尾的'\n'，避免StaticLayout多出一个空行，最后一块保留和整段排版一致
+        int end = chunk.mEnd;
+        if (index < mChunks.size() - 1 && end > chunk.mStart && mText.charAt(end - 1) == '\n') {
+            end--;
+        }
+        return new StaticLayout(mText, chunk.mStart, end, paint, mWidth, mAlignment, mSpacingMult, mSpacingAdd, false);
+    }
+}
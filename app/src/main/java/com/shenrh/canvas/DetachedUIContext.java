@@ -0,0 +1,127 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.shenrh.canvas;
+
+import android.content.Context;
+import android.content.res.Resources;
+import android.graphics.Rect;
+import android.graphics.drawable.Drawable;
+import android.view.View.MeasureSpec;
+
+/**
+ * 不依附UIView的UIContext，用于在非ui线程创建、绑定数据并measure/layout整个element树
+ *
+ * 线程约定：一棵element树同一时间只能被一个线程访问，在工作线程完成后通过Handler、Future等交给ui线程，
+ * 再调用{@link UIView#setUIElement(UIElement)}，之后只能在ui线程访问。UIView的element宽度spec与
+ * layout时的一致时不会再重新measure
+ *
+ * @author shenrh
+ *
+ */
+public class DetachedUIContext implements UIContext {
+    private static final int[] DRAWABLE_STATE = new int[] { android.R.attr.state_enabled };
+
+    private final Context mContext;
+    private volatile boolean mLayoutRequested = false;
+
+    public DetachedUIContext(Context context) {
+        mContext = context.getApplicationContext() != null ? context.getApplicationContext() : context;
+    }
+
+    /**
+     * 在当前线程measure并layout element，宽度固定，高度自适应，和UIView在ListView中的measure方式一致
+     *
+     * @param element
+     * @param width UIView去掉左右padding后的宽度
+     */
+    public static void layoutElement(UIElement element, int width) {
+        layoutElement(element, MeasureSpec.makeMeasureSpec(width, MeasureSpec.EXACTLY),
+                MeasureSpec.makeMeasureSpec(0, MeasureSpec.UNSPECIFIED));
+    }
+
+    public static void layoutElement(UIElement element, int widthMeasureSpec, int heightMeasureSpec) {
+        element.measure(widthMeasureSpec, heightMeasureSpec);
+        element.layout(0, 0, element.getMeasuredWidth(), element.getMeasuredHeight());
+    }
+
+    /**
+     * 自上次调用后是否有element请求过layout
+     *
+     * @return
+     */
+    public boolean consumeLayoutRequest() {
+        final boolean requested = mLayoutRequested;
+        mLayoutRequested = false;
+        return requested;
+    }
+
+    @Override
+    public void requestLayout() {
+        mLayoutRequested = true;
+    }
+
+    @Override
+    public void requestElementLayout() {
+        mLayoutRequested = true;
+    }
+
+    @Override
+    public void invalidate() {
+    }
+
+    @Override
+    public void invalidate(int left, int top, int right, int bottom) {
+    }
+
+    @Override
+    public void invalidateElementRect(int left, int top, int right, int bottom) {
+    }
+
+    @Override
+    public boolean getHostVisibleRect(Rect outRect) {
+        return false;
+    }
+
+    @Override
+    public int[] getDrawableState() {
+        return DRAWABLE_STATE;
+    }
+
+    @Override
+    public Context getContext() {
+        return mContext;
+    }
+
+    @Override
+    public Resources getResources() {
+        return mContext.getResources();
+    }
+
+    @Override
+    public void invalidateDrawable(Drawable who) {
+    }
+
+    @Override
+    public void scheduleDrawable(Drawable who, Runnable what, long when) {
+    }
+
+    @Override
+    public void unscheduleDrawable(Drawable who) {
+    }
+
+    @Override
+    public void unscheduleDrawable(Drawable who, Runnable what) {
+    }
+}
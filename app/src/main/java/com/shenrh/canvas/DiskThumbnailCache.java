@@ -0,0 +1,590 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.shenrh.canvas;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.os.Process;
+import android.widget.ImageView.ScaleType;
+
+/**
+ * 已经按显示尺寸缩放过的图片的磁盘缓存，key和{@link BitmapCache}一致，冷启动时不必再从原图解码
+ *
+ * 目录中的journal按顺序记录PUT、DEL、READ，打开时重放得到索引和LRU顺序，超过大小上限时删除最久没有读过的文件。
+ * get在ImageLoader的工作线程中同步读取，压缩、写文件和journal都在单独的后台线程中进行，不占用解码线程
+ *
+ * @author shenrh
+ *
+ */
+public final class DiskThumbnailCache {
+    private static final String LOGTAG = "DiskThumbnailCache";
+    private static final String DIRECTORY_NAME = "ui_thumbnails";
+    private static final String JOURNAL_FILE = "journal";
+    private static final String JOURNAL_FILE_TMP = "journal.tmp";
+    private static final String TMP_SUFFIX = ".tmp";
+    private static final String MAGIC = "com.shenrh.canvas.DiskThumbnailCache";
+    private static final String VERSION = "1";
+
+    private static final String PUT = "PUT";
+    private static final String DEL = "DEL";
+    private static final String READ = "READ";
+
+    private static final long DEFAULT_MAX_SIZE = 20 * 1024 * 1024;
+    private static final int JPEG_QUALITY = 90;
+    private static final int REDUNDANT_OP_COMPACT_THRESHOLD = 2000;
+    private static final long KEEP_ALIVE_SECONDS = 30;
+    // 等待压缩的bitmap拷贝数上限，超过时不再写入，避免快速滚动时拷贝堆积
+    private static final int MAX_PENDING_WRITES = 4;
+
+    private static DiskThumbnailCache sInstance;
+
+    private final File mDirectory;
+    private final ExecutorService mWriteExecutor;
+    private final AtomicInteger mPendingWrites = new AtomicInteger();
+
+    // 按访问顺序排列，第一个是最久没有读过的
+    private final LinkedHashMap<String, Entry> mEntries = new LinkedHashMap<String, Entry>(0, 0.75f, true);
+    private long mMaxSize = DEFAULT_MAX_SIZE;
+    private long mSize;
+    private boolean mOpened = false;
+    private Writer mJournalWriter;
+    private int mRedundantOpCount;
+
+    private int mHitCount;
+    private int mMissCount;
+
+    private static final class Entry {
+        final long mSize;
+        final int mWidth;
+        final int mHeight;
+
+        Entry(long size, int width, int height) {
+            mSize = size;
+            mWidth = width;
+            mHeight = height;
+        }
+    }
+
+    /* package */DiskThumbnailCache(File directory) {
+        mDirectory = directory;
+        final ThreadPoolExecutor executor = new ThreadPoolExecutor(1, 1, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                    @Override
+                    public Thread newThread(final Runnable r) {
+                        return new Thread(new Runnable() {
+                            @Override
+                            public void run() {
+                                Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                                r.run();
+                            }
+                        }, LOGTAG);
+                    }
+                });
+        executor.allowCoreThreadTimeOut(true);
+        mWriteExecutor = executor;
+    }
+
+    /**
+     * 使用应用cache目录下的ui_thumbnails目录
+     *
+     * @param context
+     * @return
+     */
+    public static synchronized DiskThumbnailCache getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new DiskThumbnailCache(new File(context.getApplicationContext().getCacheDir(), DIRECTORY_NAME));
+        }
+        return sInstance;
+    }
+
+    /**
+     * 和BitmapCache.Key相同的参数对应的文件名
+     *
+     * @return source不支持磁盘缓存时返回null
+     */
+    /* package */static String keyFor(ImageSource source, int width, int height, Bitmap.Config config, ScaleType scaleType) {
+        final String sourceKey = source.getDiskCacheKey();
+        if (sourceKey == null) {
+            return null;
+        }
+
+        final String key = sourceKey + '|' + width + 'x' + height + '|' + config.name() + '|' + scaleType.name();
+        try {
+            final byte[] digest = MessageDigest.getInstance("MD5").digest(key.getBytes("UTF-8"));
+            final StringBuilder builder = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                builder.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+            }
+            return builder.toString();
+        } catch (NoSuchAlgorithmException e) {
+            return null;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * 同步读取，工作线程调用，尺寸一致时从{@link BitmapPool}复用。解码成功才算命中
+     *
+     * @return 没有缓存或无法解码时返回null
+     */
+    /* package */Bitmap get(final String key, Bitmap.Config config) {
+        final Entry entry;
+        synchronized (this) {
+            ensureOpened();
+            entry = mEntries.get(key);
+            if (entry == null) {
+                mMissCount++;
+                return null;
+            }
+        }
+
+        final BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inPreferredConfig = config;
+        options.inMutable = true;
+        options.inBitmap = BitmapPool.get(entry.mWidth, entry.mHeight, config);
+
+        Bitmap bitmap = null;
+        FileInputStream in = null;
+        try {
+            // 直接从fd解码，不经过java层的流复制
+            in = new FileInputStream(new File(mDirectory, key));
+            try {
+                bitmap = BitmapFactory.decodeFileDescriptor(in.getFD(), null, options);
+            } catch (IllegalArgumentException e) {
+                if (options.inBitmap == null) {
+                    throw e;
+                }
+                BitmapPool.put(options.inBitmap);
+                options.inBitmap = null;
+                in.getChannel().position(0);
+                bitmap = BitmapFactory.decodeFileDescriptor(in.getFD(), null, options);
+            }
+        } catch (IOException e) {
+            // 可能刚被淘汰删除
+            UILog.d(LOGTAG, "Unable to read " + key, e);
+        } finally {
+            closeQuietly(in);
+        }
+
+        if (bitmap == null) {
+            if (options.inBitmap != null) {
+                BitmapPool.put(options.inBitmap);
+            }
+            synchronized (this) {
+                mMissCount++;
+            }
+            remove(key, entry);
+            return null;
+        }
+        if (bitmap != options.inBitmap) {
+            BitmapPool.recordAllocation(bitmap);
+        }
+        synchronized (this) {
+            mHitCount++;
+        }
+
+        mWriteExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                journal(READ, key);
+            }
+        });
+        return bitmap;
+    }
+
+    /**
+     * 在调用线程中只复制bitmap，压缩和写文件在后台线程，调用后bitmap可以交给ui线程。
+     * 原bitmap之后可能回到{@link BitmapPool}被复用，所以不能直接在后台压缩它。复制出的bitmap压缩后放入BitmapPool
+     *
+     * @param key
+     * @param bitmap
+     */
+    /* package */void put(final String key, Bitmap bitmap) {
+        if (bitmap.getConfig() == null) {
+            return;
+        }
+
+        if (mPendingWrites.incrementAndGet() > MAX_PENDING_WRITES) {
+            mPendingWrites.decrementAndGet();
+            return;
+        }
+
+        final Bitmap copy;
+        try {
+            copy = bitmap.copy(bitmap.getConfig(), true);
+        } catch (OutOfMemoryError e) {
+            mPendingWrites.decrementAndGet();
+            return;
+        }
+        if (copy == null) {
+            mPendingWrites.decrementAndGet();
+            return;
+        }
+        BitmapPool.recordAllocation(copy);
+
+        mWriteExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    compressAndWrite(key, copy);
+                } finally {
+                    BitmapPool.put(copy);
+                    mPendingWrites.decrementAndGet();
+                }
+            }
+        });
+    }
+
+    private void compressAndWrite(String key, Bitmap bitmap) {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream(bitmap.getWidth() * bitmap.getHeight() / 2);
+        final Bitmap.CompressFormat format = bitmap.hasAlpha() ? Bitmap.CompressFormat.PNG : Bitmap.CompressFormat.JPEG;
+        if (!bitmap.compress(format, JPEG_QUALITY, out)) {
+            return;
+        }
+
+        write(key, out.toByteArray(), bitmap.getWidth(), bitmap.getHeight());
+    }
+
+    private void write(String key, byte[] data, int width, int height) {
+        synchronized (this) {
+            ensureOpened();
+        }
+
+        final File tmpFile = new File(mDirectory, key + TMP_SUFFIX);
+        FileOutputStream out = null;
+        try {
+            out = new FileOutputStream(tmpFile);
+            out.write(data);
+            out.close();
+            out = null;
+        } catch (IOException e) {
+            UILog.d(LOGTAG, "Unable to write " + key, e);
+            closeQuietly(out);
+            tmpFile.delete();
+            return;
+        }
+
+        synchronized (this) {
+            // 同名文件可能正在被读取，rename是原子的，已经打开的文件不受影响
+            if (!tmpFile.renameTo(new File(mDirectory, key))) {
+                tmpFile.delete();
+                return;
+            }
+
+            final Entry old = mEntries.put(key, new Entry(data.length, width, height));
+            if (old != null) {
+                mSize -= old.mSize;
+                mRedundantOpCount++;
+            }
+            mSize += data.length;
+            journal(PUT, key + ' ' + data.length + ' ' + width + ' ' + height);
+            trimToSize(mMaxSize);
+        }
+    }
+
+    /**
+     * 只删除读取时的那一项，期间被新的put替换时保留新写入的文件
+     */
+    private void remove(final String key, final Entry expected) {
+        mWriteExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                synchronized (DiskThumbnailCache.this) {
+                    if (mEntries.get(key) == expected) {
+                        mEntries.remove(key);
+                        deleteEntry(key, expected);
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * 持有锁时调用
+     */
+    private void deleteEntry(String key, Entry entry) {
+        new File(mDirectory, key).delete();
+        mSize -= entry.mSize;
+        mRedundantOpCount++;
+        journal(DEL, key);
+    }
+
+    private void trimToSize(long maxSize) {
+        final Iterator<Map.Entry<String, Entry>> iterator = mEntries.entrySet().iterator();
+        while (mSize > maxSize && iterator.hasNext()) {
+            final Map.Entry<String, Entry> eldest = iterator.next();
+            iterator.remove();
+            deleteEntry(eldest.getKey(), eldest.getValue());
+        }
+    }
+
+    /**
+     * 写journal失败时只记录日志，索引以内存中为准，下次打开时没有记录的文件会被删除
+     */
+    private synchronized void journal(String op, String args) {
+        if (mJournalWriter == null) {
+            return;
+        }
+
+        if (READ.equals(op)) {
+            mRedundantOpCount++;
+        }
+
+        try {
+            mJournalWriter.write(op + ' ' + args + '\n');
+            mJournalWriter.flush();
+        } catch (IOException e) {
+            UILog.e(LOGTAG, "Unable to write journal", e);
+        }
+
+        if (mRedundantOpCount >= REDUNDANT_OP_COMPACT_THRESHOLD && mRedundantOpCount >= mEntries.size()) {
+            rebuildJournal();
+        }
+    }
+
+    private void ensureOpened() {
+        if (mOpened) {
+            return;
+        }
+        mOpened = true;
+
+        if (!mDirectory.isDirectory() && !mDirectory.mkdirs()) {
+            UILog.e(LOGTAG, "Unable to create " + mDirectory);
+            return;
+        }
+
+        try {
+            readJournal();
+        } catch (IOException e) {
+            // journal损坏时丢弃整个缓存
+            UILog.d(LOGTAG, "Journal is corrupt, clearing cache", e);
+            mEntries.clear();
+        }
+
+        deleteUnknownFiles();
+        rebuildJournal();
+    }
+
+    private void readJournal() throws IOException {
+        final File journalFile = new File(mDirectory, JOURNAL_FILE);
+        if (!journalFile.exists()) {
+            return;
+        }
+
+        final BufferedReader reader = new BufferedReader(new FileReader(journalFile));
+        try {
+            if (!MAGIC.equals(reader.readLine()) || !VERSION.equals(reader.readLine())) {
+                throw new IOException("Unexpected journal header");
+            }
+
+            int badLines = 0;
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (!readJournalLine(line)) {
+                    badLines++;
+                }
+            }
+
+            // 最后一行可能没有写完，其他位置的坏行只跳过这一行，之后的记录照常重放，打开后按索引重建journal
+            if (badLines > 0) {
+                UILog.e(LOGTAG, "Skipped " + badLines + " malformed journal line(s)");
+            }
+        } finally {
+            closeQuietly(reader);
+        }
+    }
+
+    /**
+     * @return 格式不对时返回false
+     */
+    private boolean readJournalLine(String line) {
+        final String[] parts = line.split(" ");
+        try {
+            if (parts.length == 5 && PUT.equals(parts[0])) {
+                mEntries.put(parts[1], new Entry(Long.parseLong(parts[2]), Integer.parseInt(parts[3]), Integer.parseInt(parts[4])));
+            } else if (parts.length == 2 && DEL.equals(parts[0])) {
+                mEntries.remove(parts[1]);
+            } else if (parts.length == 2 && READ.equals(parts[0])) {
+                mEntries.get(parts[1]);
+            } else {
+                return false;
+            }
+        } catch (NumberFormatException e) {
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * 删除没有记录或记录了但文件已经不存在的项，以及没写完的临时文件
+     */
+    private void deleteUnknownFiles() {
+        final Iterator<Map.Entry<String, Entry>> iterator = mEntries.entrySet().iterator();
+        while (iterator.hasNext()) {
+            final Map.Entry<String, Entry> entry = iterator.next();
+            final File file = new File(mDirectory, entry.getKey());
+            if (file.length() != entry.getValue().mSize) {
+                file.delete();
+                iterator.remove();
+            }
+        }
+
+        final File[] files = mDirectory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                final String name = file.getName();
+                if (!name.equals(JOURNAL_FILE) && !mEntries.containsKey(name)) {
+                    file.delete();
+                }
+            }
+        }
+
+        mSize = 0;
+        for (Entry entry : mEntries.values()) {
+            mSize += entry.mSize;
+        }
+    }
+
+    /**
+     * 只按当前索引重写journal，先写临时文件再替换
+     */
+    private void rebuildJournal() {
+        closeQuietly(mJournalWriter);
+        mJournalWriter = null;
+
+        final File tmpFile = new File(mDirectory, JOURNAL_FILE_TMP);
+        final File journalFile = new File(mDirectory, JOURNAL_FILE);
+        Writer writer = null;
+        try {
+            writer = new BufferedWriter(new FileWriter(tmpFile));
+            writer.write(MAGIC + '\n' + VERSION + '\n');
+            for (Map.Entry<String, Entry> entry : mEntries.entrySet()) {
+                final Entry value = entry.getValue();
+                writer.write(PUT + ' ' + entry.getKey() + ' ' + value.mSize + ' ' + value.mWidth + ' ' + value.mHeight + '\n');
+            }
+            writer.close();
+            writer = null;
+
+            if (!tmpFile.renameTo(journalFile)) {
+                throw new IOException("Unable to rename journal");
+            }
+            mJournalWriter = new BufferedWriter(new FileWriter(journalFile, true));
+            mRedundantOpCount = 0;
+        } catch (IOException e) {
+            UILog.e(LOGTAG, "Unable to rebuild journal", e);
+            closeQuietly(writer);
+        }
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException e) {
+                // ignore
+            }
+        }
+    }
+
+    /**
+     * 等待已经提交的写文件和journal操作完成
+     */
+    /* package */void flush() throws InterruptedException {
+        try {
+            mWriteExecutor.submit(new Runnable() {
+                @Override
+                public void run() {
+                }
+            }).get();
+        } catch (ExecutionException e) {
+            // 空任务不会失败
+        }
+    }
+
+    /**
+     * 超过上限的部分在后台删除
+     *
+     * @param maxBytes
+     */
+    public void setMaxSize(final long maxBytes) {
+        mWriteExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                synchronized (DiskThumbnailCache.this) {
+                    ensureOpened();
+                    mMaxSize = maxBytes;
+                    trimToSize(maxBytes);
+                }
+            }
+        });
+    }
+
+    /**
+     * 在后台删除所有缓存文件
+     */
+    public void clear() {
+        mWriteExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                synchronized (DiskThumbnailCache.this) {
+                    ensureOpened();
+                    trimToSize(-1);
+                }
+            }
+        });
+    }
+
+    /**
+     * 缓存文件的总字节数
+     *
+     * @return
+     */
+    public synchronized long size() {
+        return mSize;
+    }
+
+    public synchronized int hitCount() {
+        return mHitCount;
+    }
+
+    public synchronized int missCount() {
+        return mMissCount;
+    }
+}
@@ -0,0 +1,77 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.shenrh.canvas;
+
+import android.content.res.Resources;
+import android.graphics.drawable.Drawable;
+import android.support.v4.util.LruCache;
+
+/**
+ * 资源图片的ConstantState缓存，按资源id和density区分，命中时通过newDrawable创建新的实例，
+ * 不再查找资源和解析xml，同一个资源的实例共享bitmap等不可变的状态
+ *
+ * 每次返回的都是新实例，bounds、callback和状态互不影响。切换语言、夜间模式等配置变化后需要调用{@link #clear()}
+ *
+ * @author shenrh
+ *
+ */
+public final class DrawableCache {
+    private static final int DEFAULT_MAX_SIZE = 256;
+
+    private static final LruCache<Long, Drawable.ConstantState> sCache = new LruCache<Long, Drawable.ConstantState>(
+            DEFAULT_MAX_SIZE);
+
+    private DrawableCache() {
+    }
+
+    /**
+     * 和Resources.getDrawable相同，找不到资源时抛出NotFoundException
+     *
+     * @param res
+     * @param resId
+     * @return
+     */
+    public static Drawable getDrawable(Resources res, int resId) {
+        final Long key = ((long) res.getDisplayMetrics().densityDpi << 32) | (resId & 0xffffffffL);
+
+        final Drawable.ConstantState state = sCache.get(key);
+        if (state != null) {
+            return state.newDrawable(res);
+        }
+
+        final Drawable drawable = res.getDrawable(resId);
+        final Drawable.ConstantState newState = drawable.getConstantState();
+        if (newState != null) {
+            sCache.put(key, newState);
+        }
+        return drawable;
+    }
+
+    public static void clear() {
+        sCache.evictAll();
+    }
+
+    public static int hitCount() {
+        return sCache.hitCount();
+    }
+
+    public static int missCount() {
+        return sCache.missCount();
+    }
+
+    public static int size() {
+        return sCache.size();
+    }
+}
@@ -0,0 +1,240 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.shenrh.canvas;
+
+import java.util.Calendar;
+import android.text.TextUtils;
+import android.util.AttributeSet;
+
+/**
+ * 高频更新的数字、倒计时、时间文字，直接格式化到复用的char数组中，更新时不分配对象
+ *
+ * 内容变化但宽度不变时（例如数字为等宽字体）不会请求layout，只重绘自己
+ *
+ * @author shenrh
+ *
+ */
+public class FormattedLabelUIElement extends LabelUIElement {
+    private static final int MAX_LONG_DIGITS = 20;
+
+    private char[] mBuffer = new char[32];
+    private int mCount;
+
+    private char[] mPrefix = new char[0];
+    private char[] mSuffix = new char[0];
+
+    private char mGroupingSeparator = 0;
+    private Calendar mCalendar;
+
+    public FormattedLabelUIElement(UIContext host) {
+        this(host, null);
+    }
+
+    public FormattedLabelUIElement(UIContext host, AttributeSet attrs) {
+        super(host, attrs);
+    }
+
+    /**
+     * 放在格式化内容前面的固定文字，下一次set时生效
+     *
+     * @param prefix
+     */
+    public void setPrefix(CharSequence prefix) {
+        mPrefix = toChars(prefix);
+    }
+
+    /**
+     * 放在格式化内容后面的固定文字，下一次set时生效
+     *
+     * @param suffix
+     */
+    public void setSuffix(CharSequence suffix) {
+        mSuffix = toChars(suffix);
+    }
+
+    private static char[] toChars(CharSequence text) {
+        if (text == null) {
+            return new char[0];
+        }
+
+        final char[] chars = new char[text.length()];
+        TextUtils.getChars(text, 0, chars.length, chars, 0);
+        return chars;
+    }
+
+    /**
+     * 数字每三位之间的分隔符，0表示不分隔
+     *
+     * @param separator
+     */
+    public void setGroupingSeparator(char separator) {
+        mGroupingSeparator = separator;
+    }
+
+    public void setNumber(long value) {
+        setNumber(value, 1);
+    }
+
+    /**
+     * @param value
+     * @param minDigits 不足时前面补0
+     */
+    public void setNumber(long value, int minDigits) {
+        beginText();
+        appendNumber(value, minDigits, mGroupingSeparator);
+        commitText();
+    }
+
+    /**
+     * 时长，一小时以上为H:MM:SS，否则为MM:SS，负数按0处理
+     *
+     * @param millis
+     */
+    public void setDuration(long millis) {
+        final long totalSeconds = Math.max(0, millis) / 1000;
+        final long hours = totalSeconds / 3600;
+        final int minutes = (int) (totalSeconds / 60 % 60);
+        final int seconds = (int) (totalSeconds % 60);
+
+        beginText();
+        if (hours > 0) {
+            appendNumber(hours, 1, (char) 0);
+            append(':');
+        }
+        appendNumber(minutes, 2, (char) 0);
+        append(':');
+        appendNumber(seconds, 2, (char) 0);
+        commitText();
+    }
+
+    /**
+     * 当前时区的yyyy-MM-dd HH:mm:ss
+     *
+     * @param millis
+     */
+    public void setDateTime(long millis) {
+        final Calendar calendar = getCalendar(millis);
+
+        beginText();
+        appendNumber(calendar.get(Calendar.YEAR), 4, (char) 0);
+        append('-');
+        appendNumber(calendar.get(Calendar.MONTH) + 1, 2, (char) 0);
+        append('-');
+        appendNumber(calendar.get(Calendar.DAY_OF_MONTH), 2, (char) 0);
+        append(' ');
+        appendClock(calendar);
+        commitText();
+    }
+
+    /**
+     * 当前时区的HH:mm:ss
+     *
+     * @param millis
+     */
+    public void setClockTime(long millis) {
+        final Calendar calendar = getCalendar(millis);
+
+        beginText();
+        appendClock(calendar);
+        commitText();
+    }
+
+    protected final Calendar getCalendar(long millis) {
+        if (mCalendar == null) {
+            mCalendar = Calendar.getInstance();
+        }
+        mCalendar.setTimeInMillis(millis);
+        return mCalendar;
+    }
+
+    private void appendClock(Calendar calendar) {
+        appendNumber(calendar.get(Calendar.HOUR_OF_DAY), 2, (char) 0);
+        append(':');
+        appendNumber(calendar.get(Calendar.MINUTE), 2, (char) 0);
+        append(':');
+        appendNumber(calendar.get(Calendar.SECOND), 2, (char) 0);
+    }
+
+    /**
+     * 开始格式化新的内容，之后通过append写入，最后调用{@link #commitText()}
+     */
+    protected final void beginText() {
+        mCount = 0;
+        append(mPrefix, mPrefix.length);
+    }
+
+    protected final void commitText() {
+        append(mSuffix, mSuffix.length);
+        setTextChars(mBuffer, 0, mCount);
+    }
+
+    private void ensureCapacity(int extra) {
+        if (mCount + extra > mBuffer.length) {
+            final char[] buffer = new char[Math.max(mBuffer.length * 2, mCount + extra)];
+            System.arraycopy(mBuffer, 0, buffer, 0, mCount);
+            mBuffer = buffer;
+        }
+    }
+
+    protected final void append(char c) {
+        ensureCapacity(1);
+        mBuffer[mCount++] = c;
+    }
+
+    protected final void append(char[] chars, int count) {
+        ensureCapacity(count);
+        System.arraycopy(chars, 0, mBuffer, mCount, count);
+        mCount += count;
+    }
+
+    protected final void append(CharSequence text) {
+        final int count = text.length();
+        ensureCapacity(count);
+        TextUtils.getChars(text, 0, count, mBuffer, mCount);
+        mCount += count;
+    }
+
+    /**
+     * 从低位开始写，按负数计算避免Long.MIN_VALUE溢出
+     */
+    protected final void appendNumber(long value, int minDigits, char separator) {
+        final boolean negative = value < 0;
+        if (!negative) {
+            value = -value;
+        }
+
+        final int maxLength = Math.max(minDigits, MAX_LONG_DIGITS) * 2 + 1;
+        ensureCapacity(maxLength);
+
+        int end = mCount + maxLength;
+        int pos = end;
+        int digits = 0;
+        while (value != 0 || digits < minDigits) {
+            if (separator != 0 && digits > 0 && digits % 3 == 0) {
+                mBuffer[--pos] = separator;
+            }
+            mBuffer[--pos] = (char) ('0' - (value % 10));
+            value /= 10;
+            digits++;
+        }
+        if (negative) {
+            mBuffer[--pos] = '-';
+        }
+
+        final int length = end - pos;
+        System.arraycopy(mBuffer, pos, mBuffer, mCount, length);
+        mCount += length;
+    }
+}
@@ -0,0 +1,134 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.shenrh.canvas;
+
+import java.util.List;
+import android.view.ViewGroup.LayoutParams;
+import android.view.ViewGroup.MarginLayoutParams;
+
+/**
+ * UIElementGroup点击检测用的均匀网格，坐标为group中的坐标
+ *
+ * 每个格子按z-order从低到高保存和它相交的子element下标
+ *
+ * @author shenrh
+ *
+ */
+final class HitTestGrid {
+    private static final int INITIAL_CELL_CAPACITY = 4;
+
+    private int mColumns;
+    private int mRows;
+    private int mCellWidth;
+    private int mCellHeight;
+
+    private int[][] mCells;
+    private int[] mCellCounts;
+
+    void build(List<UIElement> elements, int width, int height) {
+        final int count = elements.size();
+        final int side = Math.max(1, (int) Math.ceil(Math.sqrt(count)));
+
+        mColumns = side;
+        mRows = side;
+        mCellWidth = Math.max(1, (width + side - 1) / side);
+        mCellHeight = Math.max(1, (height + side - 1) / side);
+
+        final int cellCount = mColumns * mRows;
+        if (mCells == null || mCells.length < cellCount) {
+            mCells = new int[cellCount][];
+            mCellCounts = new int[cellCount];
+        } else {
+            for (int i = 0; i < cellCount; i++) {
+                mCellCounts[i] = 0;
+            }
+        }
+
+        for (int i = 0; i < count; i++) {
+            final UIElement element = elements.get(i);
+
+            int left = element.getLeft();
+            int top = element.getTop();
+            int right = element.getRight();
+            int bottom = element.getBottom();
+
+            // 和isTouchOnElement一致，margin范围也算在element上
+            final LayoutParams lp = element.getLayoutParams();
+            if (lp instanceof MarginLayoutParams) {
+                final MarginLayoutParams margins = (MarginLayoutParams) lp;
+                left -= margins.leftMargin;
+                top -= margins.topMargin;
+                right += margins.rightMargin;
+                bottom += margins.bottomMargin;
+            }
+
+            final int firstColumn = getColumn(left);
+            final int lastColumn = getColumn(right);
+            final int firstRow = getRow(top);
+            final int lastRow = getRow(bottom);
+
+            for (int row = firstRow; row <= lastRow; row++) {
+                for (int column = firstColumn; column <= lastColumn; column++) {
+                    add(row * mColumns + column, i);
+                }
+            }
+        }
+    }
+
+    private void add(int cell, int index) {
+        int[] indices = mCells[cell];
+        final int size = mCellCounts[cell];
+
+        if (indices == null) {
+            indices = new int[INITIAL_CELL_CAPACITY];
+            mCells[cell] = indices;
+        } else if (size == indices.length) {
+            final int[] grown = new int[size * 2];
+            System.arraycopy(indices, 0, grown, 0, size);
+            indices = grown;
+            mCells[cell] = indices;
+        }
+
+        indices[size] = index;
+        mCellCounts[cell] = size + 1;
+    }
+
+    private int getColumn(int x) {
+        return Math.max(0, Math.min(mColumns - 1, x / mCellWidth));
+    }
+
+    private int getRow(int y) {
+        return Math.max(0, Math.min(mRows - 1, y / mCellHeight));
+    }
+
+    /**
+     * 坐标所在的格子，超出范围时取边上的格子
+     *
+     * @param x
+     * @param y
+     * @return
+     */
+    int getCell(int x, int y) {
+        return getRow(y) * mColumns + getColumn(x);
+    }
+
+    int getCount(int cell) {
+        return mCellCounts[cell];
+    }
+
+    int getElementIndex(int cell, int i) {
+        return mCells[cell][i];
+    }
+}
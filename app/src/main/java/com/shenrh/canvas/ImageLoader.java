@@ -0,0 +1,317 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.shenrh.canvas;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.widget.ImageView.ScaleType;
+
+/**
+ * ImageUIElement的异步图片解码，在固定数量的工作线程中按显示尺寸解码，结果post回ui线程
+ *
+ * 先只解码边界，按目标尺寸和ScaleType算出需要的缩放，用inSampleSize按2的幂缩小，剩下的部分再缩放一次，
+ * 解码的像素和内存只和显示尺寸有关，不会放大。解码结果在ui线程放入{@link BitmapCache}，
+ * 解码和缩放的目标bitmap优先从{@link BitmapPool}中复用
+ *
+ * 查找顺序为内存缓存（element中同步检查）、{@link DiskThumbnailCache}、原图，从原图解码的结果会写入磁盘缓存，
+ * 压缩和写文件在磁盘缓存自己的线程中进行，不占用解码线程
+ *
+ * @author shenrh
+ *
+ */
+public final class ImageLoader {
+    private static final String LOGTAG = "ImageLoader";
+    private static final int THREAD_COUNT = 2;
+    private static final long KEEP_ALIVE_SECONDS = 30;
+    private static final int STREAM_BUFFER_SIZE = 16 * 1024;
+
+    private static final Handler sHandler = new Handler(Looper.getMainLooper());
+    private static final Paint sScalePaint = new Paint(Paint.FILTER_BITMAP_FLAG | Paint.DITHER_FLAG);
+    private static ThreadPoolExecutor sExecutor;
+
+    /**
+     * ui线程回调，entry已经持有一个引用，失败时为null，取消的请求不会回调
+     */
+    /* package */interface Callback {
+        void onImageLoaded(Request request, BitmapCache.Entry entry);
+    }
+
+    /* package */static final class Request implements Runnable {
+        private final Context mContext;
+        private final BitmapCache.Key mKey;
+        private final ImageSource mSource;
+        private final int mWidth;
+        private final int mHeight;
+        private final Bitmap.Config mConfig;
+        private final ScaleType mScaleType;
+        private final Callback mCallback;
+
+        private volatile boolean mCancelled = false;
+        private Future<?> mFuture;
+
+        Request(Context context, BitmapCache.Key key, ImageSource source, int width, int height, Bitmap.Config config,
+                ScaleType scaleType, Callback callback) {
+            mContext = context.getApplicationContext() != null ? context.getApplicationContext() : context;
+            mKey = key;
+            mSource = source;
+            mWidth = width;
+            mHeight = height;
+            mConfig = config;
+            mScaleType = scaleType;
+            mCallback = callback;
+        }
+
+        int getWidth() {
+            return mWidth;
+        }
+
+        int getHeight() {
+            return mHeight;
+        }
+
+        /**
+         * ui线程调用
+         */
+        void cancel() {
+            mCancelled = true;
+            if (mFuture != null) {
+                mFuture.cancel(false);
+            }
+        }
+
+        @Override
+        public void run() {
+            if (mCancelled) {
+                return;
+            }
+
+            Bitmap bitmap = null;
+            try {
+                final DiskThumbnailCache diskCache = DiskThumbnailCache.getInstance(mContext);
+                final String diskKey = DiskThumbnailCache.keyFor(mSource, mWidth, mHeight, mConfig, mScaleType);
+                if (diskKey != null) {
+                    bitmap = diskCache.get(diskKey, mConfig);
+                }
+
+                if (bitmap == null) {
+                    bitmap = decode(mContext, mSource, mWidth, mHeight, mConfig, mScaleType);
+                    if (bitmap != null && diskKey != null) {
+                        diskCache.put(diskKey, bitmap);
+                    }
+                }
+            } catch (IOException e) {
+                UILog.d(LOGTAG, "Unable to decode " + mSource, e);
+            } catch (OutOfMemoryError e) {
+                UILog.e(LOGTAG, "Out of memory decoding " + mSource, e);
+            } catch (RuntimeException e) {
+                // SecurityException、解码器的IllegalArgumentException等，不能让element一直等待结果
+                UILog.e(LOGTAG, "Failed to load " + mSource, e);
+            } finally {
+                // 成功和失败都回调，element收到后才会清除正在加载的请求
+                postResult(bitmap);
+            }
+        }
+
+        private void postResult(final Bitmap result) {
+            sHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    // 取消的请求也放入缓存，之后再显示时可以直接命中
+                    final BitmapCache.Entry entry = result != null ? BitmapCache.put(mKey, result) : null;
+                    if (!mCancelled) {
+                        mCallback.onImageLoaded(Request.this, entry);
+                    } else if (entry != null) {
+                        BitmapCache.release(entry);
+                    }
+                }
+            });
+        }
+    }
+
+    private ImageLoader() {
+    }
+
+    /**
+     * ui线程调用，调用前应先通过{@link BitmapCache#acquire(BitmapCache.Key)}检查缓存
+     *
+     * @param key source和其他参数对应的缓存key
+     * @param width 显示区域的宽度
+     * @param height 显示区域的高度
+     */
+    /* package */static Request load(Context context, BitmapCache.Key key, ImageSource source, int width, int height,
+            Bitmap.Config config, ScaleType scaleType, Callback callback) {
+        final Request request = new Request(context, key, source, width, height, config, scaleType, callback);
+        request.mFuture = getExecutor().submit(request);
+        return request;
+    }
+
+    private static synchronized ThreadPoolExecutor getExecutor() {
+        if (sExecutor == null) {
+            sExecutor = new ThreadPoolExecutor(THREAD_COUNT, THREAD_COUNT, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                        private final AtomicInteger mCount = new AtomicInteger();
+
+                        @Override
+                        public Thread newThread(final Runnable r) {
+                            return new Thread(new Runnable() {
+                                @Override
+                                public void run() {
+                                    Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                                    r.run();
+                                }
+                            }, LOGTAG + " #" + mCount.incrementAndGet());
+                        }
+                    });
+            sExecutor.allowCoreThreadTimeOut(true);
+        }
+        return sExecutor;
+    }
+
+    /**
+     * 按显示尺寸解码，可以在任意线程调用
+     *
+     * @param width 显示区域的宽度
+     * @param height 显示区域的高度
+     * @return 无法解码时返回null
+     */
+    /* package */static Bitmap decode(Context context, ImageSource source, int width, int height, Bitmap.Config config,
+            ScaleType scaleType) throws IOException {
+        final BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        decodeStream(context, source, options);
+
+        final int sourceWidth = options.outWidth;
+        final int sourceHeight = options.outHeight;
+        if (sourceWidth <= 0 || sourceHeight <= 0) {
+            return null;
+        }
+
+        final float scale = computeScale(sourceWidth, sourceHeight, width, height, scaleType);
+        options.inJustDecodeBounds = false;
+        options.inSampleSize = computeSampleSize(scale);
+        options.inPreferredConfig = config;
+        options.inMutable = true;
+        // 4.4以前inBitmap要求尺寸完全一致并且inSampleSize为1
+        if (options.inSampleSize == 1) {
+            options.inBitmap = BitmapPool.get(sourceWidth, sourceHeight, config);
+        }
+
+        final Bitmap reusable = options.inBitmap;
+        Bitmap sampled;
+        try {
+            sampled = decodeStream(context, source, options);
+        } catch (IllegalArgumentException e) {
+            if (reusable == null) {
+                throw e;
+            }
+            // 图片格式不支持解码到已有的bitmap
+            BitmapPool.put(reusable);
+            options.inBitmap = null;
+            sampled = decodeStream(context, source, options);
+        }
+
+        if (sampled == null) {
+            if (options.inBitmap != null) {
+                BitmapPool.put(options.inBitmap);
+            }
+            return null;
+        }
+        if (sampled != options.inBitmap) {
+            BitmapPool.recordAllocation(sampled);
+        }
+
+        final int targetWidth = Math.max(1, Math.round(sourceWidth * scale));
+        final int targetHeight = Math.max(1, Math.round(sourceHeight * scale));
+        if (sampled.getWidth() <= targetWidth || sampled.getHeight() <= targetHeight) {
+            return sampled;
+        }
+
+        // 代替createScaledBitmap，目标可以复用，采样的中间结果放回池中
+        Bitmap scaled = BitmapPool.get(targetWidth, targetHeight, config);
+        if (scaled == null) {
+            scaled = Bitmap.createBitmap(targetWidth, targetHeight, config);
+            BitmapPool.recordAllocation(scaled);
+        } else {
+            scaled.eraseColor(Color.TRANSPARENT);
+        }
+
+        final Canvas canvas = new Canvas(scaled);
+        canvas.drawBitmap(sampled, null, new Rect(0, 0, targetWidth, targetHeight), sScalePaint);
+        canvas.setBitmap(null);
+        BitmapPool.put(sampled);
+        return scaled;
+    }
+
+    private static Bitmap decodeStream(Context context, ImageSource source, BitmapFactory.Options options) throws IOException {
+        final InputStream in = new BufferedInputStream(source.open(context), STREAM_BUFFER_SIZE);
+        try {
+            return BitmapFactory.decodeStream(in, null, options);
+        } finally {
+            try {
+                in.close();
+            } catch (IOException e) {
+                // ignore
+            }
+        }
+    }
+
+    /**
+     * 和ImageUIElement绘制时的缩放一致，不超过1
+     */
+    /* package */static float computeScale(int sourceWidth, int sourceHeight, int width, int height, ScaleType scaleType) {
+        if (width <= 0 || height <= 0 || scaleType == ScaleType.CENTER || scaleType == ScaleType.MATRIX) {
+            return 1.0f;
+        }
+
+        final float scaleX = (float) width / sourceWidth;
+        final float scaleY = (float) height / sourceHeight;
+        final float scale;
+        if (scaleType == ScaleType.CENTER_CROP || scaleType == ScaleType.FIT_XY) {
+            // FIT_XY按较大的一边保留像素，绘制时再拉伸
+            scale = Math.max(scaleX, scaleY);
+        } else {
+            scale = Math.min(scaleX, scaleY);
+        }
+        return Math.min(1.0f, scale);
+    }
+
+    /**
+     * 不小于目标尺寸的最大2的幂
+     */
+    private static int computeSampleSize(float scale) {
+        int sampleSize = 1;
+        while (sampleSize * 2 * scale >= 1.0f) {
+            sampleSize *= 2;
+        }
+        return sampleSize;
+    }
+}
@@ -0,0 +1,191 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.shenrh.canvas;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import android.content.ContentResolver;
+import android.content.Context;
+import android.net.Uri;
+
+/**
+ * {@link ImageUIElement#setImageSource(ImageSource, android.graphics.drawable.Drawable)}的图片来源，
+ * 在工作线程中打开，可以多次打开，内容相同的来源equals
+ *
+ * @author shenrh
+ *
+ */
+public abstract class ImageSource {
+
+    /* package */ImageSource() {
+    }
+
+    /**
+     * 按原始像素解码，不做资源的density缩放
+     *
+     * @param resId
+     * @return
+     */
+    public static ImageSource fromResource(int resId) {
+        return new ResourceSource(resId);
+    }
+
+    public static ImageSource fromFile(String path) {
+        if (path == null) {
+            throw new NullPointerException();
+        }
+        return new FileSource(path);
+    }
+
+    /**
+     * 支持ContentResolver能打开的content、file、android.resource
+     *
+     * @param uri
+     * @return
+     */
+    public static ImageSource fromUri(Uri uri) {
+        if (uri == null) {
+            throw new NullPointerException();
+        }
+        return new UriSource(uri);
+    }
+
+    /**
+     * 工作线程调用，每次返回新的流，由调用方关闭
+     */
+    /* package */abstract InputStream open(Context context) throws IOException;
+
+    /**
+     * {@link DiskThumbnailCache}使用的key，内容变化后key也应该变化，返回null时不使用磁盘缓存，工作线程调用
+     */
+    /* package */abstract String getDiskCacheKey();
+
+    private static final class ResourceSource extends ImageSource {
+        private final int mResId;
+
+        ResourceSource(int resId) {
+            mResId = resId;
+        }
+
+        @Override
+        InputStream open(Context context) throws IOException {
+            return context.getResources().openRawResource(mResId);
+        }
+
+        /**
+         * 资源在apk中，id在不同版本间不稳定，不缓存到磁盘
+         */
+        @Override
+        String getDiskCacheKey() {
+            return null;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof ResourceSource && ((ResourceSource) o).mResId == mResId;
+        }
+
+        @Override
+        public int hashCode() {
+            return mResId;
+        }
+
+        @Override
+        public String toString() {
+            return "res:" + Integer.toHexString(mResId);
+        }
+    }
+
+    private static final class FileSource extends ImageSource {
+        private final String mPath;
+
+        FileSource(String path) {
+            mPath = path;
+        }
+
+        @Override
+        InputStream open(Context context) throws IOException {
+            return new FileInputStream(mPath);
+        }
+
+        @Override
+        String getDiskCacheKey() {
+            final File file = new File(mPath);
+            return "file:" + mPath + '@' + file.lastModified() + ':' + file.length();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof FileSource && ((FileSource) o).mPath.equals(mPath);
+        }
+
+        @Override
+        public int hashCode() {
+            return mPath.hashCode();
+        }
+
+        @Override
+        public String toString() {
+            return mPath;
+        }
+    }
+
+    private static final class UriSource extends ImageSource {
+        private final Uri mUri;
+
+        UriSource(Uri uri) {
+            mUri = uri;
+        }
+
+        @Override
+        InputStream open(Context context) throws IOException {
+            final InputStream in = context.getContentResolver().openInputStream(mUri);
+            if (in == null) {
+                throw new IOException("Unable to open " + mUri);
+            }
+            return in;
+        }
+
+        /**
+         * 只缓存file，ContentResolver的内容变化后uri不变，无法判断缓存是否过期
+         */
+        @Override
+        String getDiskCacheKey() {
+            if (!ContentResolver.SCHEME_FILE.equals(mUri.getScheme()) || mUri.getPath() == null) {
+                return null;
+            }
+
+            final File file = new File(mUri.getPath());
+            return "file:" + file.getPath() + '@' + file.lastModified() + ':' + file.length();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof UriSource && ((UriSource) o).mUri.equals(mUri);
+        }
+
+        @Override
+        public int hashCode() {
+            return mUri.hashCode();
+        }
+
+        @Override
+        public String toString() {
+            return mUri.toString();
+        }
+    }
+}
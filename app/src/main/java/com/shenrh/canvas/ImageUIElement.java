@@ -24,6 +24,7 @@ import android.graphics.drawable.BitmapDrawable;
 import android.graphics.drawable.Drawable;
 import android.os.SystemClock;
 import android.util.AttributeSet;
+import android.util.DisplayMetrics;
 import android.view.MotionEvent;
 import android.view.View;
 import android.view.View.MeasureSpec;
@@ -49,6 +50,20 @@ public class ImageUIElement extends UIElement {
 
     private ScaleType mScaleType;
     private int mLevel;
+
+    // setImageSource设置的异步图片，父类构造函数中会回调onAttachedToWindow，都不设置初始值
+    private ImageSource mSource;
+    private Drawable mPlaceholder;
+    private Bitmap.Config mBitmapConfig;
+    private ImageLoader.Request mLoadRequest;
+    private boolean mSourceLoaded;
+    // 当前显示的缓存bitmap，attach期间持有引用
+    private BitmapCache.Entry mBitmapEntry;
+    private boolean mBitmapAcquired;
+    private boolean mLaidOut;
+    // 已加载或正在加载的目标尺寸
+    private int mLoadWidth;
+    private int mLoadHeight;
     
     Animation mCurrentAnimation = null;
     Transformation mTransformation = new Transformation();
@@ -214,7 +229,7 @@ public class ImageUIElement extends UIElement {
                     return;
                 }
 
-                d = res.getDrawable(mResourceId);
+                d = DrawableCache.getDrawable(res, mResourceId);
             } catch (Exception e) {
                 UILog.d(LOGTAG, "Unable to find resource: " + mResourceId, e);
             }
@@ -331,6 +346,127 @@ public class ImageUIElement extends UIElement {
     @Override
     protected void onLayout(int left, int top, int right, int bottom) {
         configureBounds();
+
+        mLaidOut = true;
+        if (mSource != null) {
+            // 变大后需要更多像素，变小时继续使用已有的结果
+            final boolean larger = getContentWidth() > mLoadWidth || getContentHeight() > mLoadHeight;
+            if (!mSourceLoaded && mLoadRequest == null || larger) {
+                startLoad();
+            }
+        }
+    }
+
+    private int getContentWidth() {
+        return getWidth() - getPaddingLeft() - getPaddingRight();
+    }
+
+    private int getContentHeight() {
+        return getHeight() - getPaddingTop() - getPaddingBottom();
+    }
+
+    /**
+     * 在真正的UIView中并且layout过后才开始加载，使用DetachedUIContext创建时等交给UIView以后
+     */
+    private void startLoad() {
+        cancelLoad();
+        if (mSource == null || !mLaidOut || !isAttachedToWindow() || mContext instanceof DetachedUIContext) {
+            return;
+        }
+
+        int width = getContentWidth();
+        int height = getContentHeight();
+        if (width <= 0 || height <= 0) {
+            // wrap_content且还没有图片时没有尺寸，限制在屏幕大小以内
+            final DisplayMetrics metrics = getResources().getDisplayMetrics();
+            width = metrics.widthPixels;
+            height = metrics.heightPixels;
+        }
+        mLoadWidth = width;
+        mLoadHeight = height;
+
+        final Bitmap.Config config = getBitmapConfig();
+        final BitmapCache.Key key = new BitmapCache.Key(mSource, width, height, config, mScaleType);
+
+        // 命中时在同一帧中显示，不会闪现占位图
+        final BitmapCache.Entry cached = BitmapCache.acquire(key);
+        if (cached != null) {
+            mSourceLoaded = true;
+            showBitmapEntry(cached);
+            return;
+        }
+
+        mLoadRequest = ImageLoader.load(getContext(), key, mSource, width, height, config, mScaleType, new ImageLoader.Callback() {
+            @Override
+            public void onImageLoaded(ImageLoader.Request request, BitmapCache.Entry entry) {
+                if (request != mLoadRequest) {
+                    if (entry != null) {
+                        BitmapCache.release(entry);
+                    }
+                    return;
+                }
+                mLoadRequest = null;
+                mSourceLoaded = true;
+
+                // 失败时保留占位图
+                if (entry != null) {
+                    showBitmapEntry(entry);
+                }
+            }
+        });
+    }
+
+    /**
+     * entry已经持有引用，新的图片设置后再释放旧的，避免绘制已回收的bitmap
+     */
+    private void showBitmapEntry(BitmapCache.Entry entry) {
+        final BitmapCache.Entry oldEntry = mBitmapAcquired ? mBitmapEntry : null;
+
+        mBitmapEntry = entry;
+        mBitmapAcquired = true;
+        applyDrawable(new BitmapDrawable(getResources(), entry.getBitmap()));
+
+        if (oldEntry != null) {
+            BitmapCache.release(oldEntry);
+        }
+    }
+
+    private void releaseBitmapEntry() {
+        if (mBitmapEntry != null) {
+            if (mBitmapAcquired) {
+                BitmapCache.release(mBitmapEntry);
+            }
+            mBitmapEntry = null;
+            mBitmapAcquired = false;
+        }
+    }
+
+    /**
+     * 加载参数变化后按新的参数重新加载
+     */
+    private void reloadSource() {
+        if (mSource != null && (mSourceLoaded || mLoadRequest != null)) {
+            mSourceLoaded = false;
+            startLoad();
+        }
+    }
+
+    private void cancelLoad() {
+        if (mLoadRequest != null) {
+            mLoadRequest.cancel();
+            mLoadRequest = null;
+        }
+    }
+
+    /**
+     * 调用后需要马上替换掉当前的drawable
+     */
+    private void clearSource() {
+        cancelLoad();
+        releaseBitmapEntry();
+        mSource = null;
+        mPlaceholder = null;
+        mSourceLoaded = false;
     }
 
     @Override
@@ -357,7 +493,7 @@ public class ImageUIElement extends UIElement {
         }
 
         if (mDrawable == who) {
-            mContext.invalidate();
+            invalidate();
         } else {
             mContext.invalidateDrawable(who);
         }
@@ -383,12 +519,34 @@ public class ImageUIElement extends UIElement {
     public void onAttachedToWindow() {
         super.onAttachedToWindow();
         setDrawableVisible(getVisibility() == View.VISIBLE);
+
+        if (mBitmapEntry != null && !mBitmapAcquired) {
+            if (BitmapCache.acquire(mBitmapEntry)) {
+                mBitmapAcquired = true;
+            } else {
+                // detach期间被淘汰并回收，重新加载
+                mBitmapEntry = null;
+                mSourceLoaded = false;
+                applyDrawable(mPlaceholder);
+            }
+        }
+
+        if (mSource != null && !mSourceLoaded) {
+            startLoad();
+        }
     }
 
     @Override
     public void onDetachedFromWindow() {
         super.onDetachedFromWindow();
         setDrawableVisible(false);
+        cancelLoad();
+
+        // 不再显示的bitmap可以被淘汰回收，重新attach时再持有
+        if (mBitmapAcquired) {
+            mBitmapAcquired = false;
+            BitmapCache.release(mBitmapEntry);
+        }
     }
 
     public void setImageLevel(int level) {
@@ -405,6 +563,7 @@ public class ImageUIElement extends UIElement {
             return;
         }
 
+        clearSource();
         updateDrawable(null);
         mResourceId = resourceId;
 
@@ -413,7 +572,8 @@ public class ImageUIElement extends UIElement {
 
         resolveUri();
 
-        if (oldWidth != mDrawableWidth || oldHeight != mDrawableHeight) {
+        // 未attach时资源无法解析，需要在onMeasure中再次resolveUri，不能命中measure缓存
+        if (oldWidth != mDrawableWidth || oldHeight != mDrawableHeight || mDrawable == null) {
             requestLayout();
         }
         invalidate();
@@ -424,11 +584,50 @@ public class ImageUIElement extends UIElement {
     }
 
     public void setImageDrawable(Drawable drawable) {
-        if (mDrawable == drawable) {
+        if (mDrawable == drawable && mSource == null) {
+            return;
+        }
+
+        clearSource();
+        mResourceId = 0;
+        applyDrawable(drawable);
+    }
+
+    /**
+     * 异步加载图片，layout以后按显示尺寸和ScaleType在工作线程解码，完成前显示placeholder
+     *
+     * 和当前来源equals时不会重新加载
+     *
+     * @param source
+     * @param placeholder 可以为null
+     */
+    public void setImageSource(ImageSource source, Drawable placeholder) {
+        if (source == null) {
+            setImageDrawable(placeholder);
+            return;
+        }
+
+        if (source.equals(mSource)) {
             return;
         }
 
+        clearSource();
         mResourceId = 0;
+        mSource = source;
+        mPlaceholder = placeholder;
+        applyDrawable(placeholder);
+
+        startLoad();
+    }
+
+    public ImageSource getImageSource() {
+        return mSource;
+    }
+
+    private void applyDrawable(Drawable drawable) {
+        if (mDrawable == drawable) {
+            return;
+        }
 
         final int oldWidth = mDrawableWidth;
         final int oldHeight = mDrawableHeight;
@@ -459,10 +658,35 @@ public class ImageUIElement extends UIElement {
 
         mScaleType = scaleType;
 
+        // 需要的像素和ScaleType有关
+        reloadSource();
+
         requestLayout();
         invalidate();
     }
 
+    /**
+     * setImageSource解码使用的格式，默认为ARGB_8888，不透明的图片可以使用RGB_565减少一半内存
+     *
+     * @param config
+     */
+    public void setBitmapConfig(Bitmap.Config config) {
+        if (config == null) {
+            throw new NullPointerException();
+        }
+
+        if (getBitmapConfig() == config) {
+            return;
+        }
+
+        mBitmapConfig = config;
+        reloadSource();
+    }
+
+    public Bitmap.Config getBitmapConfig() {
+        return mBitmapConfig != null ? mBitmapConfig : Bitmap.Config.ARGB_8888;
+    }
+
     @Override
     public boolean onTouchEvent(MotionEvent event) {
         return isClickable();
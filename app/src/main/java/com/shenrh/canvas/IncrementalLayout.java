@@ -0,0 +1,423 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.shenrh.canvas;
+
+import java.util.ArrayList;
+import android.graphics.Paint;
+import android.graphics.Typeface;
+import android.text.Layout;
+import android.text.StaticLayout;
+import android.text.TextPaint;
+import android.text.TextUtils;
+import android.util.FloatMath;
+
+/**
+ * 按段落分块的纯文本Layout，文字只在末尾变化时通过{@link #update(CharSequence)}复用前面没有变化的行，
+ * 只对变化的部分重新断行
+ *
+ * 每个块是一个StaticLayout的连续若干行，块之间不共享文字，一次更新产生新的IncrementalLayout，旧的块直接复用。
+ * 每个块记录到它为止的最大行宽和是否有自动换行，wrap_content测量时不需要遍历所有行
+ *
+ * 不支持Spanned文字和ellipsize
+ *
+ * @author shenrh
+ *
+ */
+final class IncrementalLayout extends Layout {
+    private final ArrayList<Block> mBlocks;
+    private final int mLineCount;
+
+    // includeFontPadding时第一行上方和最后一行下方多出的距离，和StaticLayout一致
+    private final int mExtraTop;
+    private final int mExtraBottom;
+    private final int mHeight;
+
+    private final float mTextSize;
+    private final float mTextScaleX;
+    private final float mTextSkewX;
+    private final Typeface mTypeface;
+    private final int mFlags;
+    private final boolean mIncludePad;
+
+    private int mLastBlockIndex = 0;
+
+    private static final class Block {
+        final StaticLayout mLayout;
+        // mLayout的文字在整个文字中的起始位置
+        final int mTextStart;
+        // 块结束的位置，段落结束时包括'\n'
+        final int mEnd;
+        final boolean mParagraphEnd;
+        final int mFirstLine;
+        final int mEndLine;
+        // 块的第一行在整个Layout中的行号和位置
+        final int mLineIndex;
+        final int mTop;
+        // mLayout第0行到第i行的最大行宽，同一个StaticLayout截断出的块共用
+        final float[] mLineMax;
+        // 包括之前所有块在内的最大行宽，以及是否有不在段落结尾处的换行
+        final float mMaxWidthThrough;
+        final boolean mWrappedThrough;
+
+        Block(StaticLayout layout, int textStart, int end, boolean paragraphEnd, int firstLine, int endLine, int lineIndex, int top,
+                float[] lineMax, Block previous) {
+            mLayout = layout;
+            mTextStart = textStart;
+            mEnd = end;
+            mParagraphEnd = paragraphEnd;
+            mFirstLine = firstLine;
+            mEndLine = endLine;
+            mLineIndex = lineIndex;
+            mTop = top;
+            mLineMax = lineMax;
+
+            // firstLine总是0
+            final float maxWidth = lineMax[endLine - 1];
+            final boolean wrapped = layout.getLineCount() > 1;
+            mMaxWidthThrough = previous == null ? maxWidth : Math.max(previous.mMaxWidthThrough, maxWidth);
+            mWrappedThrough = wrapped || (previous != null && previous.mWrappedThrough);
+        }
+
+        int getLineCount() {
+            return mEndLine - mFirstLine;
+        }
+
+        int getHeight() {
+            return mLayout.getLineTop(mEndLine) - mLayout.getLineTop(mFirstLine);
+        }
+
+        int getLineEnd(int localLine) {
+            if (localLine == mLayout.getLineCount() - 1) {
+                return mEnd;
+            }
+            return mTextStart + mLayout.getLineStart(localLine + 1);
+        }
+
+        boolean isParagraphEnd(int localLine) {
+            return mParagraphEnd && localLine == mLayout.getLineCount() - 1;
+        }
+    }
+
+    private IncrementalLayout(CharSequence text, TextPaint paint, int width, Alignment align, float spacingMult, float spacingAdd,
+            boolean includePad, int extraTop, int extraBottom, ArrayList<Block> blocks) {
+        super(text, paint, width, align, spacingMult, spacingAdd);
+
+        mBlocks = blocks;
+        mIncludePad = includePad;
+        mExtraTop = extraTop;
+        mExtraBottom = extraBottom;
+
+        mTextSize = paint.getTextSize();
+        mTextScaleX = paint.getTextScaleX();
+        mTextSkewX = paint.getTextSkewX();
+        mTypeface = paint.getTypeface();
+        mFlags = paint.getFlags();
+
+        final Block last = blocks.get(blocks.size() - 1);
+        mLineCount = last.mLineIndex + last.getLineCount();
+        mHeight = extraTop + last.mTop + last.getHeight() + extraBottom;
+    }
+
+    static IncrementalLayout create(CharSequence text, TextPaint paint, int width, Alignment align, float spacingMult,
+            float spacingAdd, boolean includePad) {
+        int extraTop = 0;
+        int extraBottom = 0;
+        if (includePad) {
+            final Paint.FontMetricsInt fm = paint.getFontMetricsInt();
+            extraTop = fm.ascent - fm.top;
+            extraBottom = fm.bottom - fm.descent;
+        }
+
+        final ArrayList<Block> blocks = new ArrayList<Block>();
+        layoutBlocks(text, 0, paint, width, align, spacingMult, spacingAdd, blocks, 0, 0);
+        return new IncrementalLayout(text, paint, width, align, spacingMult, spacingAdd, includePad, extraTop, extraBottom, blocks);
+    }
+
+    /**
+     * 从start开始按段落创建StaticLayout
+     */
+    private static void layoutBlocks(CharSequence text, int start, TextPaint paint, int width, Alignment align, float spacingMult,
+            float spacingAdd, ArrayList<Block> blocks, int lineIndex, int top) {
+        final int length = text.length();
+
+        while (true) {
+            final int newline = TextUtils.indexOf(text, '\n', start);
+            final int paragraphEnd = newline < 0 ? length : newline;
+
+            // 单独复制段落文字，不持有整个文字
+            final String paragraph = TextUtils.substring(text, start, paragraphEnd);
+            final StaticLayout layout = new StaticLayout(paragraph, paint, width, align, spacingMult, spacingAdd, false);
+            final Block block = new Block(layout, start, newline < 0 ? length : newline + 1, newline >= 0, 0, layout.getLineCount(),
+                    lineIndex, top, computeLineMax(layout), blocks.isEmpty() ? null : blocks.get(blocks.size() - 1));
+            blocks.add(block);
+
+            if (newline < 0) {
+                break;
+            }
+
+            lineIndex += block.getLineCount();
+            top += block.getHeight();
+            start = newline + 1;
+        }
+    }
+
+    private static float[] computeLineMax(StaticLayout layout) {
+        final int lineCount = layout.getLineCount();
+        final float[] lineMax = new float[lineCount];
+        float max = 0;
+        for (int i = 0; i < lineCount; i++) {
+            max = Math.max(max, layout.getLineWidth(i));
+            lineMax[i] = max;
+        }
+        return lineMax;
+    }
+
+    /**
+     * 排版参数和创建时一致时才能update
+     */
+    boolean canUpdate(TextPaint paint, int width, Alignment align, float spacingMult, float spacingAdd, boolean includePad) {
+        return getWidth() == width && getAlignment() == align && getSpacingMultiplier() == spacingMult
+                && getSpacingAdd() == spacingAdd && mIncludePad == includePad && mTextSize == paint.getTextSize()
+                && mTextScaleX == paint.getTextScaleX() && mTextSkewX == paint.getTextSkewX() && mFlags == paint.getFlags()
+                && (mTypeface == null ? paint.getTypeface() == null : mTypeface.equals(paint.getTypeface()));
+    }
+
+    /**
+     * 复用和新文字相同前缀中已经确定的行，只对之后的文字重新断行
+     *
+     * @param text
+     * @return 新的Layout，文字没有变化时返回自己
+     */
+    IncrementalLayout update(CharSequence text) {
+        final CharSequence oldText = getText();
+        final int prefix = commonPrefixLength(oldText, text);
+        if (prefix == oldText.length() && prefix == text.length()) {
+            return this;
+        }
+
+        final ArrayList<Block> blocks = new ArrayList<Block>(mBlocks.size() + 1);
+        int restart = 0;
+        int lineIndex = 0;
+        int top = 0;
+
+        for (int i = 0; i < mBlocks.size(); i++) {
+            final Block block = mBlocks.get(i);
+            if (block.mEnd <= prefix) {
+                blocks.add(block);
+                continue;
+            }
+
+            // 块中结束位置在前缀内的行
+            final int endLine = block.mLayout.getLineForOffset(Math.max(0, prefix - block.mTextStart));
+            if (endLine > block.mFirstLine) {
+                blocks.add(new Block(block.mLayout, block.mTextStart, block.getLineEnd(endLine - 1), false, block.mFirstLine, endLine,
+                        block.mLineIndex, block.mTop, block.mLineMax, blocks.isEmpty() ? null : blocks.get(blocks.size() - 1)));
+            }
+            break;
+        }
+
+        // 最后一行不是段落结尾时，它的断行位置还依赖后面变化了的文字，需要重新断行
+        if (!blocks.isEmpty()) {
+            final Block last = blocks.get(blocks.size() - 1);
+            if (!last.isParagraphEnd(last.mEndLine - 1)) {
+                blocks.remove(blocks.size() - 1);
+                if (last.getLineCount() > 1) {
+                    final int endLine = last.mEndLine - 1;
+                    blocks.add(new Block(last.mLayout, last.mTextStart, last.getLineEnd(endLine - 1), false, last.mFirstLine, endLine,
+                            last.mLineIndex, last.mTop, last.mLineMax, blocks.isEmpty() ? null : blocks.get(blocks.size() - 1)));
+                }
+            }
+        }
+
+        // 从段落中间开始的StaticLayout按自己的文字决定段落方向，和整段不一致时从段落开头重新断行
+        if (!blocks.isEmpty()) {
+            final Block last = blocks.get(blocks.size() - 1);
+            if (!last.mParagraphEnd && !isContinuationDirectionSame(last, text)) {
+                while (!blocks.isEmpty() && !blocks.get(blocks.size() - 1).mParagraphEnd) {
+                    blocks.remove(blocks.size() - 1);
+                }
+            }
+        }
+
+        if (!blocks.isEmpty()) {
+            final Block last = blocks.get(blocks.size() - 1);
+            restart = last.mEnd;
+            lineIndex = last.mLineIndex + last.getLineCount();
+            top = last.mTop + last.getHeight();
+        }
+
+        final TextPaint paint = getPaint();
+        layoutBlocks(text, restart, paint, getWidth(), getAlignment(), getSpacingMultiplier(), getSpacingAdd(), blocks, lineIndex, top);
+        return new IncrementalLayout(text, paint, getWidth(), getAlignment(), getSpacingMultiplier(), getSpacingAdd(), mIncludePad,
+                mExtraTop, mExtraBottom, blocks);
+    }
+
+    /**
+     * 段落中间的块之后的文字单独排版时的段落方向和块所在段落的方向是否一致
+     */
+    private static boolean isContinuationDirectionSame(Block block, CharSequence text) {
+        final int newline = TextUtils.indexOf(text, '\n', block.mEnd);
+        final int paragraphEnd = newline < 0 ? text.length() : newline;
+        return firstStrongDirection(text, block.mEnd, paragraphEnd) == block.mLayout.getParagraphDirection(0);
+    }
+
+    /**
+     * 和StaticLayout默认的FIRSTSTRONG_LTR一致，没有强方向字符时为从左到右
+     */
+    private static int firstStrongDirection(CharSequence text, int start, int end) {
+        int i = start;
+        while (i < end) {
+            final int codePoint = Character.codePointAt(text, i);
+            switch (Character.getDirectionality(codePoint)) {
+            case Character.DIRECTIONALITY_LEFT_TO_RIGHT:
+                return DIR_LEFT_TO_RIGHT;
+            case Character.DIRECTIONALITY_RIGHT_TO_LEFT:
+            case Character.DIRECTIONALITY_RIGHT_TO_LEFT_ARABIC:
+                return DIR_RIGHT_TO_LEFT;
+            default:
+                break;
+            }
+            i += Character.charCount(codePoint);
+        }
+        return DIR_LEFT_TO_RIGHT;
+    }
+
+    /**
+     * 是否有行因为宽度不够而换行，此时不换行需要的宽度大于{@link #getWidth()}
+     */
+    boolean hasWrappedLine() {
+        return mBlocks.get(mBlocks.size() - 1).mWrappedThrough;
+    }
+
+    /**
+     * 所有行的最大宽度
+     */
+    int getMaxLineWidth() {
+        return (int) FloatMath.ceil(mBlocks.get(mBlocks.size() - 1).mMaxWidthThrough);
+    }
+
+    private static int commonPrefixLength(CharSequence a, CharSequence b) {
+        final int length = Math.min(a.length(), b.length());
+        for (int i = 0; i < length; i++) {
+            if (a.charAt(i) != b.charAt(i)) {
+                return i;
+            }
+        }
+        return length;
+    }
+
+    /**
+     * 行所在的块，连续访问相邻的行时直接命中上一次的块
+     */
+    private Block getBlock(int line) {
+        Block block = mBlocks.get(mLastBlockIndex);
+        if (line >= block.mLineIndex && line < block.mLineIndex + block.getLineCount()) {
+            return block;
+        }
+
+        int low = 0;
+        int high = mBlocks.size() - 1;
+        while (low < high) {
+            final int mid = (low + high + 1) >>> 1;
+            if (mBlocks.get(mid).mLineIndex <= line) {
+                low = mid;
+            } else {
+                high = mid - 1;
+            }
+        }
+
+        mLastBlockIndex = low;
+        return mBlocks.get(low);
+    }
+
+    @Override
+    public int getLineCount() {
+        return mLineCount;
+    }
+
+    @Override
+    public int getHeight() {
+        return mHeight;
+    }
+
+    @Override
+    public int getLineTop(int line) {
+        if (line == 0) {
+            return 0;
+        }
+        if (line >= mLineCount) {
+            return mHeight;
+        }
+
+        final Block block = getBlock(line);
+        final int localLine = block.mFirstLine + line - block.mLineIndex;
+        return mExtraTop + block.mTop + block.mLayout.getLineTop(localLine) - block.mLayout.getLineTop(block.mFirstLine);
+    }
+
+    @Override
+    public int getLineDescent(int line) {
+        final Block block = getBlock(line);
+        final int descent = block.mLayout.getLineDescent(block.mFirstLine + line - block.mLineIndex);
+        return line == mLineCount - 1 ? descent + mExtraBottom : descent;
+    }
+
+    @Override
+    public int getLineStart(int line) {
+        if (line >= mLineCount) {
+            return getText().length();
+        }
+
+        final Block block = getBlock(line);
+        return block.mTextStart + block.mLayout.getLineStart(block.mFirstLine + line - block.mLineIndex);
+    }
+
+    @Override
+    public int getParagraphDirection(int line) {
+        final Block block = getBlock(line);
+        return block.mLayout.getParagraphDirection(block.mFirstLine + line - block.mLineIndex);
+    }
+
+    @Override
+    public boolean getLineContainsTab(int line) {
+        final Block block = getBlock(line);
+        return block.mLayout.getLineContainsTab(block.mFirstLine + line - block.mLineIndex);
+    }
+
+    @Override
+    public Directions getLineDirections(int line) {
+        final Block block = getBlock(line);
+        return block.mLayout.getLineDirections(block.mFirstLine + line - block.mLineIndex);
+    }
+
+    @Override
+    public int getTopPadding() {
+        return -mExtraTop;
+    }
+
+    @Override
+    public int getBottomPadding() {
+        return mExtraBottom;
+    }
+
+    @Override
+    public int getEllipsisStart(int line) {
+        return 0;
+    }
+
+    @Override
+    public int getEllipsisCount(int line) {
+        return 0;
+    }
+}
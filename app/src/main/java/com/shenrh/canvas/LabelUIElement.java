@@ -0,0 +1,451 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.shenrh.canvas;
+
+import android.content.res.ColorStateList;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Typeface;
+import android.text.TextPaint;
+import android.text.TextUtils;
+import android.text.TextUtils.TruncateAt;
+import android.util.AttributeSet;
+import android.util.TypedValue;
+import android.view.Gravity;
+import android.view.View.MeasureSpec;
+
+/**
+ * 单行文字element，用于名字、数字、时间等简单文字
+ *
+ * 文字变化时用getTextWidths测量一次并缓存每个字符的宽度，ellipsize直接在宽度数组中查找截断位置，
+ * 绘制只调用一次drawText，不创建Layout。不支持Spanned、换行和compound drawable，需要时使用TextUIElement
+ *
+ * @author shenrh
+ *
+ */
+public class LabelUIElement extends UIElement {
+    private static final char ELLIPSIS_CHAR = '\u2026';
+    private static final String ELLIPSIS = String.valueOf(ELLIPSIS_CHAR);
+
+    // 通过setTextChars设置时为null，getText时才创建
+    private CharSequence mText = "";
+    private char[] mChars = new char[0];
+    private int mLength = 0;
+
+    private float[] mAdvances = new float[0];
+    private float mTextWidth;
+    private float mEllipsisWidth;
+
+    // 实际绘制的字符，不需要ellipsize时就是mChars
+    private char[] mDrawChars = mChars;
+    private char[] mEllipsizedChars = new char[0];
+    private int mDrawCount = 0;
+    private float mDrawX;
+    private float mBaseline;
+
+    private final TextPaint mTextPaint;
+    private final Paint.FontMetricsInt mFontMetrics = new Paint.FontMetricsInt();
+    private boolean mIncludeFontPadding = true;
+
+    private ColorStateList mTextColor;
+    private int mCurTextColor;
+    private TruncateAt mEllipsize = TruncateAt.END;
+    private int mGravity = Gravity.TOP | Gravity.START;
+
+    public LabelUIElement(UIContext host) {
+        this(host, null);
+    }
+
+    public LabelUIElement(UIContext host, AttributeSet attrs) {
+        super(host, attrs);
+
+        mTextPaint = new TextPaint(Paint.ANTI_ALIAS_FLAG);
+        mTextPaint.density = getResources().getDisplayMetrics().density;
+        updatePaintMetrics();
+
+        setTextColor(ColorStateList.valueOf(0xFF000000));
+    }
+
+    public CharSequence getText() {
+        if (mText == null) {
+            mText = new String(mChars, 0, mLength);
+        }
+        return mText;
+    }
+
+    public void setText(CharSequence text) {
+        if (text == null) {
+            text = "";
+        }
+
+        if (mText != null ? TextUtils.equals(mText, text) : contentEquals(text)) {
+            return;
+        }
+
+        mText = text;
+        mLength = text.length();
+        if (mChars.length < mLength) {
+            mChars = new char[mLength];
+        }
+        TextUtils.getChars(text, 0, mLength, mChars, 0);
+
+        onTextChanged();
+    }
+
+    /**
+     * 直接设置字符，内容相同时什么都不做，不创建String
+     *
+     * @param chars
+     * @param start
+     * @param count
+     */
+    protected void setTextChars(char[] chars, int start, int count) {
+        if (count == mLength) {
+            int i = 0;
+            while (i < count && mChars[i] == chars[start + i]) {
+                i++;
+            }
+            if (i == count) {
+                return;
+            }
+        }
+
+        mText = null;
+        mLength = count;
+        if (mChars.length < count) {
+            mChars = new char[count];
+        }
+        System.arraycopy(chars, start, mChars, 0, count);
+
+        onTextChanged();
+    }
+
+    private boolean contentEquals(CharSequence text) {
+        if (text.length() != mLength) {
+            return false;
+        }
+        for (int i = 0; i < mLength; i++) {
+            if (mChars[i] != text.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 重新测量字符宽度，宽度变化时才请求layout
+     */
+    private void onTextChanged() {
+        final int oldWidth = (int) Math.ceil(mTextWidth);
+        measureAdvances();
+
+        if ((int) Math.ceil(mTextWidth) != oldWidth) {
+            requestLayout();
+        }
+        updateDrawText();
+        invalidate();
+    }
+
+    private void measureAdvances() {
+        if (mAdvances.length < mLength) {
+            mAdvances = new float[mLength];
+        }
+        mTextPaint.getTextWidths(mChars, 0, mLength, mAdvances);
+
+        float width = 0;
+        for (int i = 0; i < mLength; i++) {
+            width += mAdvances[i];
+        }
+        mTextWidth = width;
+    }
+
+    private void updatePaintMetrics() {
+        mTextPaint.getFontMetricsInt(mFontMetrics);
+        mEllipsisWidth = mTextPaint.measureText(ELLIPSIS);
+    }
+
+    /**
+     * 字体相关的属性变化后重新测量
+     */
+    private void onPaintChanged() {
+        updatePaintMetrics();
+        measureAdvances();
+        requestLayout();
+        invalidate();
+    }
+
+    public void setTextSize(float size) {
+        setTextSize(TypedValue.COMPLEX_UNIT_SP, size);
+    }
+
+    public void setTextSize(int unit, float size) {
+        setRawTextSize(TypedValue.applyDimension(unit, size, getResources().getDisplayMetrics()));
+    }
+
+    public void setRawTextSize(float size) {
+        if (mTextPaint.getTextSize() == size) {
+            return;
+        }
+
+        mTextPaint.setTextSize(size);
+        onPaintChanged();
+    }
+
+    public float getTextSize() {
+        return mTextPaint.getTextSize();
+    }
+
+    public void setTypeface(Typeface typeface) {
+        if (mTextPaint.getTypeface() == typeface) {
+            return;
+        }
+
+        mTextPaint.setTypeface(typeface);
+        onPaintChanged();
+    }
+
+    public void setFakeBoldText(boolean fakeBold) {
+        if (mTextPaint.isFakeBoldText() == fakeBold) {
+            return;
+        }
+
+        mTextPaint.setFakeBoldText(fakeBold);
+        onPaintChanged();
+    }
+
+    public void setIncludeFontPadding(boolean includePad) {
+        if (mIncludeFontPadding == includePad) {
+            return;
+        }
+
+        mIncludeFontPadding = includePad;
+        requestLayout();
+        invalidate();
+    }
+
+    public void setTextColor(int color) {
+        setTextColor(ColorStateList.valueOf(color));
+    }
+
+    public void setTextColor(ColorStateList colors) {
+        if (colors == null) {
+            throw new NullPointerException();
+        }
+
+        mTextColor = colors;
+        updateTextColors();
+    }
+
+    private void updateTextColors() {
+        final int color = mTextColor.getColorForState(mContext.getDrawableState(), 0);
+        if (color != mCurTextColor) {
+            mCurTextColor = color;
+            mTextPaint.setColor(color);
+            invalidate();
+        }
+    }
+
+    @Override
+    public void drawableStateChanged() {
+        if (mTextColor != null && mTextColor.isStateful()) {
+            updateTextColors();
+        }
+    }
+
+    /**
+     * 支持START、MIDDLE、END，null时直接截断，MARQUEE按END处理
+     *
+     * @param ellipsize
+     */
+    public void setEllipsize(TruncateAt ellipsize) {
+        if (mEllipsize == ellipsize) {
+            return;
+        }
+
+        mEllipsize = ellipsize;
+        updateDrawText();
+        invalidate();
+    }
+
+    public void setGravity(int gravity) {
+        if (mGravity == gravity) {
+            return;
+        }
+
+        mGravity = gravity;
+        updateDrawText();
+        invalidate();
+    }
+
+    public int getGravity() {
+        return mGravity;
+    }
+
+    private int getTextHeight() {
+        return mIncludeFontPadding ? mFontMetrics.bottom - mFontMetrics.top : mFontMetrics.descent - mFontMetrics.ascent;
+    }
+
+    @Override
+    protected void onMeasure(int widthMeasureSpec, int heightMeasureSpec) {
+        final int widthMode = MeasureSpec.getMode(widthMeasureSpec);
+        final int heightMode = MeasureSpec.getMode(heightMeasureSpec);
+        final int widthSize = MeasureSpec.getSize(widthMeasureSpec);
+        final int heightSize = MeasureSpec.getSize(heightMeasureSpec);
+
+        int width;
+        if (widthMode == MeasureSpec.EXACTLY) {
+            width = widthSize;
+        } else {
+            width = (int) Math.ceil(mTextWidth) + getPaddingLeft() + getPaddingRight();
+            if (widthMode == MeasureSpec.AT_MOST) {
+                width = Math.min(widthSize, width);
+            }
+        }
+
+        int height;
+        if (heightMode == MeasureSpec.EXACTLY) {
+            height = heightSize;
+        } else {
+            height = getTextHeight() + getPaddingTop() + getPaddingBottom();
+            if (heightMode == MeasureSpec.AT_MOST) {
+                height = Math.min(heightSize, height);
+            }
+        }
+
+        setMeasuredDimension(width, height);
+    }
+
+    @Override
+    protected void onLayout(int left, int top, int right, int bottom) {
+        updateDrawText();
+    }
+
+    /**
+     * 根据当前宽度确定绘制的字符和位置
+     */
+    private void updateDrawText() {
+        final int available = getWidth() - getPaddingLeft() - getPaddingRight();
+        float drawWidth = mTextWidth;
+
+        if (mTextWidth <= available || available <= 0) {
+            mDrawChars = mChars;
+            mDrawCount = mLength;
+        } else if (mEllipsize == null) {
+            mDrawChars = mChars;
+            mDrawCount = countFromStart(available);
+            drawWidth = available;
+        } else {
+            ellipsize(available - mEllipsisWidth);
+            drawWidth = available;
+        }
+
+        final int horizontalGravity = mGravity & Gravity.HORIZONTAL_GRAVITY_MASK;
+        float x = getPaddingLeft();
+        if (horizontalGravity == Gravity.CENTER_HORIZONTAL) {
+            x += (available - drawWidth) / 2;
+        } else if (horizontalGravity == Gravity.RIGHT) {
+            x += available - drawWidth;
+        }
+        mDrawX = x;
+
+        final int verticalGravity = mGravity & Gravity.VERTICAL_GRAVITY_MASK;
+        final int textTop = mIncludeFontPadding ? mFontMetrics.top : mFontMetrics.ascent;
+        final int boxHeight = getHeight() - getPaddingTop() - getPaddingBottom();
+        int y = getPaddingTop();
+        if (verticalGravity == Gravity.CENTER_VERTICAL) {
+            y += (boxHeight - getTextHeight()) / 2;
+        } else if (verticalGravity == Gravity.BOTTOM) {
+            y += boxHeight - getTextHeight();
+        }
+        mBaseline = y - textTop;
+    }
+
+    /**
+     * 从头开始放得下的字符数，不拆开surrogate pair
+     */
+    private int countFromStart(float width) {
+        float sum = 0;
+        int count = 0;
+        while (count < mLength && sum + mAdvances[count] <= width) {
+            sum += mAdvances[count];
+            count++;
+        }
+        if (count > 0 && count < mLength && Character.isLowSurrogate(mChars[count])) {
+            count--;
+        }
+        return count;
+    }
+
+    /**
+     * 从末尾开始放得下的字符数
+     */
+    private int countFromEnd(float width) {
+        float sum = 0;
+        int count = 0;
+        while (count < mLength && sum + mAdvances[mLength - 1 - count] <= width) {
+            sum += mAdvances[mLength - 1 - count];
+            count++;
+        }
+        if (count > 0 && count < mLength && Character.isLowSurrogate(mChars[mLength - count])) {
+            count--;
+        }
+        return count;
+    }
+
+    private void ellipsize(float width) {
+        if (mEllipsizedChars.length < mLength + 1) {
+            mEllipsizedChars = new char[mLength + 1];
+        }
+        final char[] chars = mEllipsizedChars;
+
+        if (width <= 0) {
+            chars[0] = ELLIPSIS_CHAR;
+            mDrawCount = 1;
+        } else if (mEllipsize == TruncateAt.START) {
+            final int tail = countFromEnd(width);
+            chars[0] = ELLIPSIS_CHAR;
+            System.arraycopy(mChars, mLength - tail, chars, 1, tail);
+            mDrawCount = tail + 1;
+        } else if (mEllipsize == TruncateAt.MIDDLE) {
+            final int head = countFromStart(width / 2);
+            float headWidth = 0;
+            for (int i = 0; i < head; i++) {
+                headWidth += mAdvances[i];
+            }
+            final int tail = countFromEnd(width - headWidth);
+
+            System.arraycopy(mChars, 0, chars, 0, head);
+            chars[head] = ELLIPSIS_CHAR;
+            System.arraycopy(mChars, mLength - tail, chars, head + 1, tail);
+            mDrawCount = head + tail + 1;
+        } else {
+            final int head = countFromStart(width);
+            System.arraycopy(mChars, 0, chars, 0, head);
+            chars[head] = ELLIPSIS_CHAR;
+            mDrawCount = head + 1;
+        }
+
+        mDrawChars = chars;
+    }
+
+    @Override
+    protected void onDraw(Canvas canvas) {
+        if (mDrawCount == 0) {
+            return;
+        }
+
+        canvas.drawText(mDrawChars, 0, mDrawCount, mDrawX, mBaseline, mTextPaint);
+    }
+}
@@ -55,30 +55,6 @@ public class LinearLayoutUIElement extends UIElementGroup {
         return mOrientation;
     }
 
-    @Override
-    public int getElementTop(UIElement element) {
-        if (mOrientation == VERTICAL) {
-            for (UIElement e : getAllElement()) {
-                if (element.equals(e)) {
-                    return e.getTop();
-                }
-            }
-        }
-        return 0;
-    }
-
-    @Override
-    public int getElementLeft(UIElement element) {
-        if (mOrientation == HORIZONTAL) {
-            for (UIElement e : getAllElement()) {
-                if (element.equals(e)) {
-                    return e.getLeft();
-                }
-            }
-        }
-        return 0;
-    }
-
     @Override
     protected void onMeasure(int widthMeasureSpec, int heightMeasureSpec) {
         List<UIElement> mElements = getAllElement();
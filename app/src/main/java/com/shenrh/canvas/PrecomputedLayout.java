@@ -0,0 +1,110 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.shenrh.canvas;
+
+import android.text.BoringLayout;
+import android.text.Layout;
+import android.text.TextPaint;
+import android.text.TextUtils.TruncateAt;
+import android.util.FloatMath;
+
+/**
+ * 预先创建好的文字Layout，可以在任意线程创建，通过{@link TextUIElement#setPrecomputedText(PrecomputedLayout)}交给element
+ *
+ * width为TextUIElement去掉左右padding后的宽度，measure时宽度、paint和排版参数都一致才会被使用，创建后不可修改。
+ * 同时保存不断行时的宽度，wrap_content时measure不需要在ui线程遍历全文
+ *
+ * @author shenrh
+ *
+ */
+public final class PrecomputedLayout {
+    private final CharSequence mText;
+    private final Layout mLayout;
+    private final TextLayoutCache.Key mKey;
+    private final BoringLayout.Metrics mBoring;
+    private final int mDesiredWidth;
+
+    private PrecomputedLayout(CharSequence text, Layout layout, TextLayoutCache.Key key, BoringLayout.Metrics boring,
+            int desiredWidth) {
+        mText = text;
+        mLayout = layout;
+        mKey = key;
+        mBoring = boring;
+        mDesiredWidth = desiredWidth;
+    }
+
+    /**
+     * 使用TextUIElement的默认排版参数创建
+     *
+     * @param text
+     * @param paint 会复制一份，调用后可以继续修改
+     * @param width
+     * @return
+     */
+    public static PrecomputedLayout create(CharSequence text, TextPaint paint, int width) {
+        return create(text, paint, width, Layout.Alignment.ALIGN_NORMAL, 1.0f, 0.0f, true, null, Integer.MAX_VALUE);
+    }
+
+    public static PrecomputedLayout create(CharSequence text, TextPaint paint, int width, Layout.Alignment alignment, float spacingMult,
+            float spacingAdd, boolean includePad, TruncateAt ellipsize, int maxLines) {
+        if (text == null) {
+            text = "";
+        }
+        if (width < 0) {
+            width = 0;
+        }
+
+        final TextPaint layoutPaint = new TextPaint(paint);
+        final BoringLayout.Metrics boring = text instanceof String ? BoringMetricsCache.isBoring((String) text, layoutPaint)
+                : BoringLayout.isBoring(text, layoutPaint);
+        final Layout layout = TextUIElement.makeLayout(text, layoutPaint, width, boring, width, alignment, spacingMult, spacingAdd,
+                includePad, ellipsize, maxLines, null);
+        final TextLayoutCache.Key key = new TextLayoutCache.Key(text, layoutPaint, width, width, alignment, ellipsize, maxLines,
+                spacingMult, spacingAdd, includePad);
+        final int desiredWidth = boring != null ? boring.width : (int) FloatMath.ceil(Layout.getDesiredWidth(text, layoutPaint));
+
+        return new PrecomputedLayout(text, layout, key, boring, desiredWidth);
+    }
+
+    public CharSequence getText() {
+        return mText;
+    }
+
+    public Layout getLayout() {
+        return mLayout;
+    }
+
+    public int getWidth() {
+        return mLayout.getWidth();
+    }
+
+    /**
+     * 不是boring文字时为null
+     */
+    /* package */BoringLayout.Metrics getBoring() {
+        return mBoring;
+    }
+
+    /**
+     * 不断行时的宽度
+     */
+    /* package */int getDesiredWidth() {
+        return mDesiredWidth;
+    }
+
+    /* package */boolean isValidFor(TextLayoutCache.Key key) {
+        return mKey.equals(key);
+    }
+}
@@ -0,0 +1,112 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.shenrh.canvas;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Set;
+import java.util.WeakHashMap;
+import android.os.Handler;
+import android.os.Looper;
+
+/**
+ * 进程内共享的相对时间刷新，只在ui线程使用
+ *
+ * 只有attach的RelativeTimeUIElement会注册，ticker只在最早一个文字变化的时间点唤醒，
+ * 唤醒时只刷新到期的element，显示变为日期的element自动移除，没有注册的element时不再唤醒。
+ * 注册集合按弱引用保存，没有正常detach的element也不会被一直持有
+ *
+ * @author shenrh
+ *
+ */
+public final class RelativeTimeTicker implements Runnable {
+    private static RelativeTimeTicker sInstance;
+
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private final Set<RelativeTimeUIElement> mElements = Collections
+            .newSetFromMap(new WeakHashMap<RelativeTimeUIElement, Boolean>());
+    // 刷新时element可能注销自己，遍历这份复制
+    private final ArrayList<RelativeTimeUIElement> mTickElements = new ArrayList<RelativeTimeUIElement>();
+
+    // 已经post的唤醒时间，System.currentTimeMillis()
+    private long mScheduledTime = Long.MAX_VALUE;
+
+    private RelativeTimeTicker() {
+    }
+
+    public static RelativeTimeTicker getInstance() {
+        if (sInstance == null) {
+            sInstance = new RelativeTimeTicker();
+        }
+        return sInstance;
+    }
+
+    /* package */void register(RelativeTimeUIElement element) {
+        mElements.add(element);
+        schedule(element.getNextUpdateTime());
+    }
+
+    /* package */void unregister(RelativeTimeUIElement element) {
+        mElements.remove(element);
+        if (mElements.isEmpty()) {
+            cancel();
+        }
+    }
+
+    /**
+     * element的下一次变化时间改变后调用，比已经post的时间早时重新post
+     */
+    /* package */void schedule(long time) {
+        if (time >= mScheduledTime || mElements.isEmpty()) {
+            return;
+        }
+
+        mHandler.removeCallbacks(this);
+        mScheduledTime = time;
+        mHandler.postDelayed(this, Math.max(0, time - System.currentTimeMillis()));
+    }
+
+    private void cancel() {
+        mHandler.removeCallbacks(this);
+        mScheduledTime = Long.MAX_VALUE;
+    }
+
+    public int getRegisteredCount() {
+        return mElements.size();
+    }
+
+    @Override
+    public void run() {
+        mScheduledTime = Long.MAX_VALUE;
+
+        final long now = System.currentTimeMillis();
+        long next = Long.MAX_VALUE;
+
+        mTickElements.addAll(mElements);
+        final int count = mTickElements.size();
+        for (int i = 0; i < count; i++) {
+            final RelativeTimeUIElement element = mTickElements.get(i);
+            if (element.getNextUpdateTime() <= now) {
+                element.tick(now);
+            }
+            next = Math.min(next, element.getNextUpdateTime());
+        }
+        mTickElements.clear();
+
+        if (next != Long.MAX_VALUE) {
+            schedule(next);
+        }
+    }
+}
@@ -0,0 +1,233 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.shenrh.canvas;
+
+import java.util.Calendar;
+import android.util.AttributeSet;
+
+/**
+ * "5分钟前"样式的相对时间，attach期间由{@link RelativeTimeTicker}在文字变化时自动刷新，
+ * 超过{@link #MAX_RELATIVE_DAYS}天后显示日期，不再变化，从ticker中移除
+ *
+ * 默认显示中文，不分配对象。其他语言可以通过{@link #setDefaultFormatter(Formatter)}或{@link #setFormatter(Formatter)}
+ * 传入从应用资源中读取文字的Formatter，子类也可以重写{@link #formatTime(long, long)}修改显示格式
+ *
+ * @author shenrh
+ *
+ */
+public class RelativeTimeUIElement extends FormattedLabelUIElement {
+    protected static final long MINUTE = 60 * 1000L;
+    protected static final long HOUR = 60 * MINUTE;
+    protected static final long DAY = 24 * HOUR;
+    private static final int MAX_RELATIVE_DAYS = 7;
+
+    private static final char[] JUST_NOW = "刚刚".toCharArray();
+    private static final char[] MINUTES_AGO = "分钟前".toCharArray();
+    private static final char[] HOURS_AGO = "小时前".toCharArray();
+    private static final char[] DAYS_AGO = "天前".toCharArray();
+
+    private static volatile Formatter sDefaultFormatter;
+
+    /**
+     * 相对时间的文字，例如通过Resources.getQuantityString从应用自己的plurals资源中读取，在ui线程调用
+     */
+    public interface Formatter {
+        CharSequence formatJustNow();
+
+        CharSequence formatMinutesAgo(int minutes);
+
+        CharSequence formatHoursAgo(int hours);
+
+        CharSequence formatDaysAgo(int days);
+    }
+
+    // 父类构造函数中会回调onAttachedToWindow，此时字段还没有初始化，都不设置初始值，用mHasTime判断
+    private boolean mHasTime;
+    private long mTime;
+    private long mNextUpdateTime;
+    private boolean mRegistered;
+    private Formatter mFormatter;
+
+    public RelativeTimeUIElement(UIContext host) {
+        this(host, null);
+    }
+
+    public RelativeTimeUIElement(UIContext host, AttributeSet attrs) {
+        super(host, attrs);
+    }
+
+    /**
+     * 所有没有单独设置Formatter的element使用，为null时显示中文，已经显示的element在下次刷新时生效
+     *
+     * @param formatter
+     */
+    public static void setDefaultFormatter(Formatter formatter) {
+        sDefaultFormatter = formatter;
+    }
+
+    /**
+     * 只对这个element生效，为null时使用{@link #setDefaultFormatter(Formatter)}设置的Formatter
+     *
+     * @param formatter
+     */
+    public void setFormatter(Formatter formatter) {
+        mFormatter = formatter;
+        if (mHasTime) {
+            refresh(System.currentTimeMillis());
+        }
+    }
+
+    private Formatter getFormatter() {
+        return mFormatter != null ? mFormatter : sDefaultFormatter;
+    }
+
+    /**
+     * @param time System.currentTimeMillis()表示的时间
+     */
+    public void setTime(long time) {
+        mTime = time;
+        mHasTime = true;
+        refresh(System.currentTimeMillis());
+        updateRegistration();
+    }
+
+    public long getTime() {
+        return mTime;
+    }
+
+    /* package */long getNextUpdateTime() {
+        return mNextUpdateTime;
+    }
+
+    /* package */void refresh(long now) {
+        if (!mHasTime) {
+            mNextUpdateTime = Long.MAX_VALUE;
+            return;
+        }
+
+        beginText();
+        mNextUpdateTime = formatTime(now, mTime);
+        commitText();
+    }
+
+    /**
+     * ticker到期时调用，显示变为日期后不再需要刷新
+     */
+    /* package */void tick(long now) {
+        refresh(now);
+        if (mNextUpdateTime == Long.MAX_VALUE) {
+            updateRegistration();
+        }
+    }
+
+    /**
+     * 通过append系列方法写入显示的文字
+     *
+     * @param now
+     * @param time
+     * @return 文字下一次变化的时间，不再变化时返回Long.MAX_VALUE
+     */
+    protected long formatTime(long now, long time) {
+        final long elapsed = now - time;
+        final Formatter formatter = getFormatter();
+
+        if (elapsed < MINUTE) {
+            if (formatter != null) {
+                append(formatter.formatJustNow());
+            } else {
+                append(JUST_NOW, JUST_NOW.length);
+            }
+            return time + MINUTE;
+        }
+
+        if (elapsed < HOUR) {
+            final int minutes = (int) (elapsed / MINUTE);
+            if (formatter != null) {
+                append(formatter.formatMinutesAgo(minutes));
+            } else {
+                appendNumber(minutes, 1, (char) 0);
+                append(MINUTES_AGO, MINUTES_AGO.length);
+            }
+            return time + (minutes + 1) * MINUTE;
+        }
+
+        if (elapsed < DAY) {
+            final int hours = (int) (elapsed / HOUR);
+            if (formatter != null) {
+                append(formatter.formatHoursAgo(hours));
+            } else {
+                appendNumber(hours, 1, (char) 0);
+                append(HOURS_AGO, HOURS_AGO.length);
+            }
+            return time + (hours + 1) * HOUR;
+        }
+
+        final int days = (int) (elapsed / DAY);
+        if (days < MAX_RELATIVE_DAYS) {
+            if (formatter != null) {
+                append(formatter.formatDaysAgo(days));
+            } else {
+                appendNumber(days, 1, (char) 0);
+                append(DAYS_AGO, DAYS_AGO.length);
+            }
+            return time + (days + 1) * DAY;
+        }
+
+        final Calendar calendar = getCalendar(time);
+        appendNumber(calendar.get(Calendar.YEAR), 4, (char) 0);
+        append('-');
+        appendNumber(calendar.get(Calendar.MONTH) + 1, 2, (char) 0);
+        append('-');
+        appendNumber(calendar.get(Calendar.DAY_OF_MONTH), 2, (char) 0);
+        return Long.MAX_VALUE;
+    }
+
+    /**
+     * 使用DetachedUIContext在工作线程创建时不注册，交给UIView后才注册
+     */
+    private void updateRegistration() {
+        final boolean register = mHasTime && isAttachedToWindow() && !(mContext instanceof DetachedUIContext)
+                && mNextUpdateTime != Long.MAX_VALUE;
+
+        if (register) {
+            mRegistered = true;
+            RelativeTimeTicker.getInstance().register(this);
+        } else if (mRegistered) {
+            mRegistered = false;
+            RelativeTimeTicker.getInstance().unregister(this);
+        }
+    }
+
+    @Override
+    protected void onAttachedToWindow() {
+        super.onAttachedToWindow();
+
+        if (mHasTime && !(mContext instanceof DetachedUIContext)) {
+            // detach期间可能错过了变化
+            refresh(System.currentTimeMillis());
+        }
+        updateRegistration();
+    }
+
+    @Override
+    protected void onDetachedFromWindow() {
+        super.onDetachedFromWindow();
+
+        if (mRegistered) {
+            mRegistered = false;
+            RelativeTimeTicker.getInstance().unregister(this);
+        }
+    }
+}
@@ -32,13 +32,22 @@ public class StaticLayoutWithMaxLines {
     private static final String TEXT_DIRS_CLASS = "android.text.TextDirectionHeuristics";
     private static final String TEXT_DIR_FIRSTSTRONG_LTR = "FIRSTSTRONG_LTR";
 
-    private static boolean sInitialized;
+    // 在sConstructor和sTextDirection赋值之后写入，读到true时两者对所有线程可见
+    private static volatile boolean sInitialized;
 
     private static Constructor<StaticLayout> sConstructor;
-    private static Object[] sConstructorArgs;
+    private static int sConstructorArgCount;
     private static Object sTextDirection;
 
-    public static synchronized void ensureInitialized() {
+    public static void ensureInitialized() {
+        if (sInitialized) {
+            return;
+        }
+
+        initialize();
+    }
+
+    private static synchronized void initialize() {
         if (sInitialized) {
             return;
         }
@@ -62,7 +71,7 @@ public class StaticLayoutWithMaxLines {
             // Make the StaticLayout constructor with max lines public
             sConstructor = StaticLayout.class.getDeclaredConstructor(signature);
             sConstructor.setAccessible(true);
-            sConstructorArgs = new Object[signature.length];
+            sConstructorArgCount = signature.length;
         } catch (NoSuchMethodException e) {
             UILog.e(LOGTAG, "StaticLayout constructor with max lines not found.", e);
         } catch (ClassNotFoundException e) {
@@ -85,26 +94,30 @@ public class StaticLayoutWithMaxLines {
         return (sConstructor != null);
     }
 
-    public static synchronized StaticLayout create(CharSequence source, int bufstart, int bufend, TextPaint paint, int outerWidth,
+    /**
+     * 可以在多个线程同时调用，参数数组每次调用单独分配，不持有全局锁。paint在调用期间不能被其他线程修改
+     */
+    public static StaticLayout create(CharSequence source, int bufstart, int bufend, TextPaint paint, int outerWidth,
             Alignment align, float spacingMult, float spacingAdd, boolean includePad, TruncateAt ellipsize, int ellipsisWidth, int maxLines) {
         ensureInitialized();
 
+        final Object[] args = new Object[sConstructorArgCount];
         try {
-            sConstructorArgs[0] = source;
-            sConstructorArgs[1] = bufstart;
-            sConstructorArgs[2] = bufend;
-            sConstructorArgs[3] = paint;
-            sConstructorArgs[4] = outerWidth;
-            sConstructorArgs[5] = align;
-            sConstructorArgs[6] = sTextDirection;
-            sConstructorArgs[7] = spacingMult;
-            sConstructorArgs[8] = spacingAdd;
-            sConstructorArgs[9] = includePad;
-            sConstructorArgs[10] = ellipsize;
-            sConstructorArgs[11] = ellipsisWidth;
-            sConstructorArgs[12] = maxLines;
-
-            return sConstructor.newInstance(sConstructorArgs);
+            args[0] = source;
+            args[1] = bufstart;
+            args[2] = bufend;
+            args[3] = paint;
+            args[4] = outerWidth;
+            args[5] = align;
+            args[6] = sTextDirection;
+            args[7] = spacingMult;
+            args[8] = spacingAdd;
+            args[9] = includePad;
+            args[10] = ellipsize;
+            args[11] = ellipsisWidth;
+            args[12] = maxLines;
+
+            return sConstructor.newInstance(args);
         } catch (Exception e) {
             throw new IllegalStateException("Error creating StaticLayout with max lines: " + e);
         }
@@ -0,0 +1,171 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.shenrh.canvas;
+
+import android.graphics.Typeface;
+import android.support.v4.util.LruCache;
+import android.text.Layout;
+import android.text.TextPaint;
+import android.text.TextUtils.TruncateAt;
+
+import java.util.Locale;
+
+/**
+ * 进程内共享的文字Layout缓存，相同文字和排版参数的TextUIElement复用同一个Layout
+ *
+ * 缓存的Layout持有创建者TextPaint的拷贝，只有影响断行和度量的属性参与key，颜色、style、shader、阴影等
+ * 绘制状态不参与，绘制前由TextUIElement把自己的paint整体拷贝过去
+ *
+ * @author shenrh
+ *
+ */
+public final class TextLayoutCache {
+    private static final int DEFAULT_MAX_SIZE = 512;
+
+    private static volatile boolean sEnabled = true;
+    private static volatile LruCache<Key, Layout> sCache = new LruCache<Key, Layout>(DEFAULT_MAX_SIZE);
+
+    private TextLayoutCache() {
+    }
+
+    public static void setEnabled(boolean enabled) {
+        sEnabled = enabled;
+        if (!enabled) {
+            sCache.evictAll();
+        }
+    }
+
+    public static boolean isEnabled() {
+        return sEnabled;
+    }
+
+    /**
+     * 修改缓存大小，已有的缓存会被清空
+     *
+     * @param maxSize 缓存的Layout个数
+     */
+    public static synchronized void setMaxSize(int maxSize) {
+        sCache.evictAll();
+        sCache = new LruCache<Key, Layout>(maxSize);
+    }
+
+    static Layout get(Key key) {
+        return sCache.get(key);
+    }
+
+    static void put(Key key, Layout layout) {
+        sCache.put(key, layout);
+    }
+
+    public static void clear() {
+        sCache.evictAll();
+    }
+
+    public static int hitCount() {
+        return sCache.hitCount();
+    }
+
+    public static int missCount() {
+        return sCache.missCount();
+    }
+
+    public static int evictionCount() {
+        return sCache.evictionCount();
+    }
+
+    public static int size() {
+        return sCache.size();
+    }
+
+    static final class Key {
+        private final CharSequence mText;
+        private final float mTextSize;
+        private final float mTextScaleX;
+        private final float mTextSkewX;
+        private final Typeface mTypeface;
+        private final Locale mTextLocale;
+        private final int mFlags;
+        private final int mWidth;
+        private final int mEllipsisWidth;
+        private final Layout.Alignment mAlignment;
+        private final TruncateAt mEllipsize;
+        private final int mMaxLines;
+        private final float mSpacingMult;
+        private final float mSpacingAdd;
+        private final boolean mIncludePad;
+        private final int mHashCode;
+
+        Key(CharSequence text, TextPaint paint, int width, int ellipsisWidth, Layout.Alignment alignment, TruncateAt ellipsize,
+                int maxLines, float spacingMult, float spacingAdd, boolean includePad) {
+            mText = text;
+            mTextSize = paint.getTextSize();
+            mTextScaleX = paint.getTextScaleX();
+            mTextSkewX = paint.getTextSkewX();
+            mTypeface = paint.getTypeface();
+            mTextLocale = paint.getTextLocale();
+            mFlags = paint.getFlags();
+            mWidth = width;
+            mEllipsisWidth = ellipsisWidth;
+            mAlignment = alignment;
+            mEllipsize = ellipsize;
+            mMaxLines = maxLines;
+            mSpacingMult = spacingMult;
+            mSpacingAdd = spacingAdd;
+            mIncludePad = includePad;
+
+            int result = mText.hashCode();
+            result = 31 * result + Float.floatToIntBits(mTextSize);
+            result = 31 * result + Float.floatToIntBits(mTextScaleX);
+            result = 31 * result + Float.floatToIntBits(mTextSkewX);
+            result = 31 * result + (mTypeface != null ? mTypeface.hashCode() : 0);
+            result = 31 * result + (mTextLocale != null ? mTextLocale.hashCode() : 0);
+            result = 31 * result + mFlags;
+            result = 31 * result + mWidth;
+            result = 31 * result + mEllipsisWidth;
+            result = 31 * result + (mAlignment != null ? mAlignment.hashCode() : 0);
+            result = 31 * result + (mEllipsize != null ? mEllipsize.hashCode() : 0);
+            result = 31 * result + mMaxLines;
+            result = 31 * result + Float.floatToIntBits(mSpacingMult);
+            result = 31 * result + Float.floatToIntBits(mSpacingAdd);
+            result = 31 * result + (mIncludePad ? 1 : 0);
+            mHashCode = result;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+
+            final Key other = (Key) o;
+            return mHashCode == other.mHashCode && mWidth == other.mWidth && mEllipsisWidth == other.mEllipsisWidth
+                    && mMaxLines == other.mMaxLines && mFlags == other.mFlags && mIncludePad == other.mIncludePad
+                    && Float.compare(mTextSize, other.mTextSize) == 0 && Float.compare(mTextScaleX, other.mTextScaleX) == 0
+                    && Float.compare(mTextSkewX, other.mTextSkewX) == 0 && Float.compare(mSpacingMult, other.mSpacingMult) == 0
+                    && Float.compare(mSpacingAdd, other.mSpacingAdd) == 0
+                    && (mTypeface == null ? other.mTypeface == null : mTypeface.equals(other.mTypeface))
+                    && (mTextLocale == null ? other.mTextLocale == null : mTextLocale.equals(other.mTextLocale))
+                    && mAlignment == other.mAlignment && mEllipsize == other.mEllipsize && (mText == other.mText || mText.equals(other.mText));
+        }
+
+        @Override
+        public int hashCode() {
+            return mHashCode;
+        }
+    }
+}
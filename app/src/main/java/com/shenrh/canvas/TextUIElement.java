@@ -21,6 +21,8 @@ import android.graphics.Canvas;
 import android.graphics.Paint;
 import android.graphics.Rect;
 import android.graphics.drawable.Drawable;
+import android.os.Handler;
+import android.os.Looper;
 import android.text.BoringLayout;
 import android.text.Editable;
 import android.text.InputFilter;
@@ -62,6 +64,28 @@ public class TextUIElement extends UIElement {
 
     private Layout mLayout;
     private BoringLayout mSavedLayout;
+    // mLayout来自TextLayoutCache或PrecomputedLayout时是共享的，不能修改
+    private boolean mLayoutShared = false;
+    private boolean mLayoutCacheEnabled = true;
+    private PrecomputedLayout mPrecomputed;
+    private boolean mIncrementalLayoutEnabled = false;
+    // 上一次创建的IncrementalLayout，nullLayouts后仍然保留用于复用
+    private IncrementalLayout mIncrementalLayout;
+    // 长文本模式下代替mLayout，此时mLayout为null
+    private boolean mLongTextEnabled = false;
+    private ChunkedTextLayout mChunkedLayout;
+    private final Rect mClipBounds = new Rect();
+    private final Rect mVisibleBounds = new Rect();
+    // 长文本绘制中块的高度修正后，在绘制之外请求重新layout
+    private static final Handler sHandler = new Handler(Looper.getMainLooper());
+    private Runnable mRelayoutRunnable;
+    private boolean mRelayoutPosted = false;
+    private Runnable mLongTextMeasuredRunnable;
+
+    // gravity产生的文字偏移，Layout或大小变化后在layout阶段重新计算，绘制时直接使用
+    private int mGravityOffsetX;
+    private int mGravityOffsetY;
+    private boolean mGravityOffsetValid = false;
 
     private final TextPaint mTextPaint;
     private TextUtils.TruncateAt mEllipsize;
@@ -111,6 +135,11 @@ public class TextUIElement extends UIElement {
     }
 
     private int getDesiredWidth() {
+        if (mLayout instanceof IncrementalLayout) {
+            final IncrementalLayout layout = (IncrementalLayout) mLayout;
+            return layout.hasWrappedLine() ? -1 : layout.getMaxLineWidth();
+        }
+
         final int lineCount = mLayout.getLineCount();
         final CharSequence text = mLayout.getText();
 
@@ -147,81 +176,224 @@ public class TextUIElement extends UIElement {
         }
 
         mOldMaxLines = mMaxLines;
-        boolean shouldEllipsize = (mEllipsize != null);
+        mGravityOffsetValid = false;
+
+        if (mPrecomputed != null && mPrecomputed.isValidFor(newLayoutKey(wantWidth, ellipsisWidth))) {
+            mLayout = mPrecomputed.getLayout();
+            mLayoutShared = true;
+            return;
+        }
+
+        if (isIncrementalLayoutUsable()) {
+            if (mIncrementalLayout != null
+                    && mIncrementalLayout.canUpdate(mTextPaint, wantWidth, mLayoutAlignment, mLineSpacingMult, mLineSpacingAdd,
+                            mIncludeFontPadding)) {
+                mIncrementalLayout = mIncrementalLayout.update(mText);
+            } else {
+                mIncrementalLayout = IncrementalLayout.create(mText, mTextPaint, wantWidth, mLayoutAlignment, mLineSpacingMult,
+                        mLineSpacingAdd, mIncludeFontPadding);
+            }
+            mLayout = mIncrementalLayout;
+            mLayoutShared = false;
+            return;
+        }
 
-        mLayout = makeSingleLayout(wantWidth, boring, ellipsisWidth, mLayoutAlignment, shouldEllipsize, mEllipsize, bringIntoView);
+        TextLayoutCache.Key key = null;
+        if (isLayoutCacheable()) {
+            key = newLayoutKey(wantWidth, ellipsisWidth);
+            final Layout cached = TextLayoutCache.get(key);
+            if (cached != null) {
+                mLayout = cached;
+                mLayoutShared = true;
+                return;
+            }
+        }
+
+        if (key != null) {
+            // 共享的Layout使用独立的TextPaint，也不能复用mSavedLayout
+            mLayout = makeSingleLayout(new TextPaint(mTextPaint), wantWidth, boring, ellipsisWidth, mLayoutAlignment, mEllipsize, false);
+            mLayoutShared = true;
+            TextLayoutCache.put(key, mLayout);
+        } else {
+            mLayout = makeSingleLayout(mTextPaint, wantWidth, boring, ellipsisWidth, mLayoutAlignment, mEllipsize, true);
+            mLayoutShared = false;
+        }
     }
 
-    private Layout makeSingleLayout(int wantWidth, BoringLayout.Metrics boring, int ellipsisWidth, Layout.Alignment alignment,
-            boolean shouldEllipsize, TruncateAt effectiveEllipsize, boolean useSaved) {
-        Layout result;
+    private TextLayoutCache.Key newLayoutKey(int wantWidth, int ellipsisWidth) {
+        return new TextLayoutCache.Key(mText, mTextPaint, wantWidth, ellipsisWidth, mLayoutAlignment, mEllipsize, mMaxLines,
+                mLineSpacingMult, mLineSpacingAdd, mIncludeFontPadding);
+    }
+
+    private boolean isIncrementalLayoutUsable() {
+        return mIncrementalLayoutEnabled && mEllipsize == null && !(mText instanceof Spanned);
+    }
+
+    /**
+     * 增量排版模式，适合不断在末尾追加文字的场景，setText时只对变化的段落重新断行，
+     * 文字高度不变时不会请求父element重新layout。只对没有ellipsize的普通字符串生效
+     * 
+     * @param enabled
+     */
+    public void setIncrementalLayoutEnabled(boolean enabled) {
+        if (mIncrementalLayoutEnabled == enabled) {
+            return;
+        }
+
+        mIncrementalLayoutEnabled = enabled;
+        if (!enabled) {
+            mIncrementalLayout = null;
+        }
+        recreateLayout();
+    }
+
+    public boolean isIncrementalLayoutEnabled() {
+        return mIncrementalLayoutEnabled;
+    }
 
+    /**
+     * 长文本模式，文字按段落分块，只对绘制到的块断行，绘制时只画和可见区域相交的行，
+     * 首帧和每帧的开销和文字总长度无关。首次绘制后在后台对所有块断行，只保留行数和高度，
+     * 估算的总高度只修正一次。宽度为UNSPECIFIED或设置了ellipsize时不生效，
+     * 不支持maxLines和gravity，生效时{@link #getLayout()}返回null
+     * 
+     * @param enabled
+     */
+    public void setLongTextEnabled(boolean enabled) {
+        if (mLongTextEnabled == enabled) {
+            return;
+        }
+
+        mLongTextEnabled = enabled;
+        recreateLayout();
+    }
+
+    public boolean isLongTextEnabled() {
+        return mLongTextEnabled;
+    }
+
+    private boolean isLongTextUsable() {
+        return mLongTextEnabled && mEllipsize == null;
+    }
+
+    /**
+     * 只缓存普通字符串
+     */
+    private boolean isLayoutCacheable() {
+        return mLayoutCacheEnabled && TextLayoutCache.isEnabled() && mText instanceof String;
+    }
+
+    /**
+     * 是否使用进程内共享的Layout缓存，默认开启，通过getPaint()直接修改字号、字体等影响排版的属性的element需要关闭
+     * 
+     * @param enabled
+     */
+    public void setLayoutCacheEnabled(boolean enabled) {
+        if (mLayoutCacheEnabled == enabled) {
+            return;
+        }
+
+        mLayoutCacheEnabled = enabled;
+        recreateLayout();
+    }
+
+    private Layout makeSingleLayout(TextPaint paint, int wantWidth, BoringLayout.Metrics boring, int ellipsisWidth,
+            Layout.Alignment alignment, TruncateAt effectiveEllipsize, boolean reuseSaved) {
         if (boring == UNKNOWN_BORING) {
-            boring = BoringLayout.isBoring(mText, mTextPaint, mBoring);
-            if (boring != null) {
-                mBoring = boring;
-            }
+            boring = isBoring(paint);
         }
 
+        return makeLayout(mText, paint, wantWidth, boring, ellipsisWidth, alignment, mLineSpacingMult, mLineSpacingAdd,
+                mIncludeFontPadding, effectiveEllipsize, mMaxLines, reuseSaved ? mSavedLayout : null);
+    }
+
+    /**
+     * 普通字符串使用共享的BoringMetricsCache，Spanned每次重新计算
+     */
+    private BoringLayout.Metrics isBoring(TextPaint paint) {
+        if (mText instanceof String) {
+            return BoringMetricsCache.isBoring((String) mText, paint);
+        }
+
+        final BoringLayout.Metrics boring = BoringLayout.isBoring(mText, paint, mBoring);
+        if (boring != null) {
+            mBoring = boring;
+        }
+        return boring;
+    }
+
+    /**
+     * 创建文字Layout，不访问element的状态，PrecomputedLayout在工作线程也使用这里的逻辑
+     * 
+     * @param boring 为null时表示不是boring文字
+     * @param savedLayout 可以复用的BoringLayout，可以为null
+     */
+    static Layout makeLayout(CharSequence text, TextPaint paint, int wantWidth, BoringLayout.Metrics boring, int ellipsisWidth,
+            Layout.Alignment alignment, float spacingMult, float spacingAdd, boolean includePad, TruncateAt ellipsize, int maxLines,
+            BoringLayout savedLayout) {
+        final boolean shouldEllipsize = (ellipsize != null);
+        Layout result;
+
         if (boring != null) {
             // Layout is smaller than target width, no ellipsize defined.
-            if (boring.width <= wantWidth && (effectiveEllipsize == null || boring.width <= ellipsisWidth)) {
-                if (mSavedLayout != null) {
-                    result = mSavedLayout.replaceOrMake(mText, mTextPaint, wantWidth, alignment, mLineSpacingMult, mLineSpacingAdd, boring,
-                            mIncludeFontPadding);
+            if (boring.width <= wantWidth && (ellipsize == null || boring.width <= ellipsisWidth)) {
+                if (savedLayout != null) {
+                    result = savedLayout.replaceOrMake(text, paint, wantWidth, alignment, spacingMult, spacingAdd, boring, includePad);
                 } else {
-                    result = BoringLayout.make(mText, mTextPaint, wantWidth, alignment, mLineSpacingMult, mLineSpacingAdd, boring,
-                            mIncludeFontPadding);
-                }
-
-                if (useSaved) {
-                    mSavedLayout = (BoringLayout) result;
+                    result = BoringLayout.make(text, paint, wantWidth, alignment, spacingMult, spacingAdd, boring, includePad);
                 }
 
                 // Layout is smaller than target width, ellipsize is not
                 // necessary.
             } else if (shouldEllipsize && boring.width <= wantWidth) {
-                if (useSaved && mSavedLayout != null) {
-                    result = mSavedLayout.replaceOrMake(mText, mTextPaint, wantWidth, alignment, mLineSpacingMult, mLineSpacingAdd, boring,
-                            mIncludeFontPadding, effectiveEllipsize, ellipsisWidth);
-                } else {
-                    result = BoringLayout.make(mText, mTextPaint, wantWidth, alignment, mLineSpacingMult, mLineSpacingAdd, boring,
-                            mIncludeFontPadding, effectiveEllipsize, ellipsisWidth);
-                }
+                result = BoringLayout.make(text, paint, wantWidth, alignment, spacingMult, spacingAdd, boring, includePad, ellipsize,
+                        ellipsisWidth);
 
                 // Should ellipsize, layout is bigger than target width.
             } else if (shouldEllipsize) {
-                result = StaticLayoutWithMaxLines.create(mText, 0, mText.length(), mTextPaint, wantWidth, alignment, mLineSpacingMult,
-                        mLineSpacingAdd, mIncludeFontPadding, effectiveEllipsize, ellipsisWidth, mMaxLines);
+                result = StaticLayoutWithMaxLines.create(text, 0, text.length(), paint, wantWidth, alignment, spacingMult, spacingAdd,
+                        includePad, ellipsize, ellipsisWidth, maxLines);
 
                 // No ellipsize, just truncate text.
             } else {
-                result = new StaticLayout(mText, mTextPaint, wantWidth, alignment, mLineSpacingMult, mLineSpacingAdd, mIncludeFontPadding);
+                result = new StaticLayout(text, paint, wantWidth, alignment, spacingMult, spacingAdd, includePad);
             }
 
             // Layout is not Boring and should ellipsize.
         } else if (shouldEllipsize) {
-            result = StaticLayoutWithMaxLines.create(mText, 0, mText.length(), mTextPaint, wantWidth, alignment, mLineSpacingMult,
-                    mLineSpacingAdd, mIncludeFontPadding, effectiveEllipsize, ellipsisWidth, mMaxLines);
+            result = StaticLayoutWithMaxLines.create(text, 0, text.length(), paint, wantWidth, alignment, spacingMult, spacingAdd,
+                    includePad, ellipsize, ellipsisWidth, maxLines);
 
             // Layout is not boring and should not ellipsize
         } else {
-            result = new StaticLayout(mText, mTextPaint, wantWidth, alignment, mLineSpacingMult, mLineSpacingAdd, mIncludeFontPadding);
+            result = new StaticLayout(text, paint, wantWidth, alignment, spacingMult, spacingAdd, includePad);
         }
 
         return result;
     }
 
     private void nullLayouts() {
-        if (mLayout instanceof BoringLayout && mSavedLayout == null) {
+        if (mLayout instanceof BoringLayout && mSavedLayout == null && !mLayoutShared) {
             mSavedLayout = (BoringLayout) mLayout;
         }
 
         mLayout = null;
+        releaseChunkedLayout();
+        mGravityOffsetValid = false;
+    }
+
+    private void releaseChunkedLayout() {
+        if (mChunkedLayout != null) {
+            mChunkedLayout.cancelMeasure();
+            mChunkedLayout = null;
+        }
     }
 
     private void checkForRelayout() {
         if (mLayout == null) {
+            if (mChunkedLayout != null) {
+                recreateLayout();
+            }
             return;
         }
 
@@ -257,6 +429,14 @@ public class TextUIElement extends UIElement {
             // Request a new view layout using our new text layout.
             requestLayout();
             invalidate();
+        } else if (mLayout instanceof IncrementalLayout && isIncrementalLayoutUsable()) {
+            // 增量排版先按原宽度更新，测量时最大行宽直接从块中取得，大小不变时只重绘
+            final int oldWidth = mLayout.getWidth();
+            makeNewLayout(oldWidth, UNKNOWN_BORING, oldWidth, false);
+            if (remeasureWithLastSpecs()) {
+                requestLayout();
+            }
+            invalidate();
         } else {
             // Dynamic width, so we have no choice but to request a new
             // view layout with a new text layout.
@@ -265,7 +445,7 @@ public class TextUIElement extends UIElement {
     }
 
     private void recreateLayout() {
-        if (mLayout == null) {
+        if (mLayout == null && mChunkedLayout == null) {
             return;
         }
 
@@ -284,6 +464,11 @@ public class TextUIElement extends UIElement {
 
     @Override
     protected void onDraw(Canvas canvas) {
+        if (mChunkedLayout != null) {
+            drawLongText(canvas);
+            return;
+        }
+
         if (mLayout == null) {
             return;
         }
@@ -292,31 +477,134 @@ public class TextUIElement extends UIElement {
         canvas.save();
 
         mTextPaint.setColor(mCurTextColor);
+        final TextPaint layoutPaint = mLayout.getPaint();
+        if (layoutPaint != mTextPaint) {
+            // 共享的Layout带着创建者的paint，绘制前整体换成自己的绘制状态（颜色、style、shader、阴影等），
+            // 影响断行的属性由缓存key保证一致
+            layoutPaint.set(mTextPaint);
+        }
 
-        float clipLeft = getPaddingLeft();
-        float clipTop = getPaddingTop();
-        float clipRight = getRight() - getPaddingRight();
-        float clipBottom = getBottom() - getPaddingBottom();
-        canvas.clipRect(clipLeft, clipTop, clipRight, clipBottom);
+        // onDraw中的坐标已经是element自己的坐标
+        final int paddingLeft = getPaddingLeft();
+        final int paddingTop = getPaddingTop();
+        canvas.clipRect(paddingLeft, paddingTop, getWidth() - getPaddingRight(), getHeight() - getPaddingBottom());
 
-        // TODO
-        int xoff = 0;
-        int yoff = 0;
-        Rect bounds = new Rect();
-        mTextPaint.getTextBounds(mText.toString(), 0, mText.length(), bounds);
-        if ((mGravity & Gravity.HORIZONTAL_GRAVITY_MASK) == Gravity.CENTER_HORIZONTAL) {
-            xoff = (int) ((clipRight - clipLeft - bounds.width()) / 2);
+        if (!mGravityOffsetValid) {
+            updateGravityOffset();
         }
+        canvas.translate(paddingLeft + mGravityOffsetX, paddingTop + mGravityOffsetY);
+        mLayout.draw(canvas);
 
-        if ((mGravity & Gravity.VERTICAL_GRAVITY_MASK) == Gravity.CENTER_VERTICAL) {
-            yoff = (int) ((clipBottom - clipTop - bounds.height()) / 2);
+        canvas.restoreToCount(saveCount);
+    }
+
+    private void drawLongText(Canvas canvas) {
+        final int saveCount = canvas.save();
+        mTextPaint.setColor(mCurTextColor);
+
+        final int paddingLeft = getPaddingLeft();
+        final int paddingTop = getPaddingTop();
+        canvas.clipRect(paddingLeft, paddingTop, getWidth() - getPaddingRight(), getHeight() - getPaddingBottom());
+        canvas.translate(paddingLeft, paddingTop);
+
+        // 外层的clip决定可见范围，只绘制和它相交的块。硬件加速时clip是整个view，改用宿主实际可见的区域
+        canvas.getClipBounds(mClipBounds);
+        if (canvas.isHardwareAccelerated() && mContext.getHostVisibleRect(mVisibleBounds)) {
+            mVisibleBounds.offset(-(getAbsoluteLeft() + paddingLeft), -(getAbsoluteTop() + paddingTop));
+            if (!mClipBounds.intersect(mVisibleBounds)) {
+                canvas.restoreToCount(saveCount);
+                return;
+            }
+        }
+
+        // 首次绘制后在后台得到所有块的实际高度，之前绘制到的块同步断行
+        mChunkedLayout.measureInBackground(getLongTextMeasuredRunnable());
+
+        final int oldHeight = mChunkedLayout.getHeight();
+        mChunkedLayout.draw(canvas, mClipBounds.top, mClipBounds.bottom);
+        if (mChunkedLayout.getHeight() != oldHeight) {
+            postRelayout();
         }
-        canvas.translate(getPaddingLeft() + xoff, getPaddingTop() + yoff);
-        mLayout.draw(canvas);
 
         canvas.restoreToCount(saveCount);
     }
 
+    /**
+     * 后台测量完成后在ui线程回调，估算值已经一次性替换成实际高度
+     */
+    private Runnable getLongTextMeasuredRunnable() {
+        if (mLongTextMeasuredRunnable == null) {
+            mLongTextMeasuredRunnable = new Runnable() {
+                @Override
+                public void run() {
+                    if (mChunkedLayout != null) {
+                        requestLayout();
+                        invalidate();
+                    }
+                }
+            };
+        }
+        return mLongTextMeasuredRunnable;
+    }
+
+    /**
+     * 不在绘制过程中请求layout，可见块之前的位置没有变化，下一帧修正总高度即可
+     */
+    private void postRelayout() {
+        if (mRelayoutPosted) {
+            return;
+        }
+
+        if (mRelayoutRunnable == null) {
+            mRelayoutRunnable = new Runnable() {
+                @Override
+                public void run() {
+                    mRelayoutPosted = false;
+                    if (mChunkedLayout != null) {
+                        requestLayout();
+                    }
+                }
+            };
+        }
+        mRelayoutPosted = true;
+        sHandler.post(mRelayoutRunnable);
+    }
+
+    @Override
+    protected void onLayout(int left, int top, int right, int bottom) {
+        updateGravityOffset();
+    }
+
+    /**
+     * 根据Layout的行宽和高度计算居中时的偏移，不分配对象
+     */
+    private void updateGravityOffset() {
+        mGravityOffsetX = 0;
+        mGravityOffsetY = 0;
+        mGravityOffsetValid = true;
+
+        if (mLayout == null) {
+            return;
+        }
+
+        if ((mGravity & Gravity.HORIZONTAL_GRAVITY_MASK) == Gravity.CENTER_HORIZONTAL) {
+            final int boxWidth = getWidth() - getPaddingLeft() - getPaddingRight();
+            final int lineCount = Math.min(mMaxLines, mLayout.getLineCount());
+
+            float textWidth = 0;
+            for (int i = 0; i < lineCount; i++) {
+                textWidth = Math.max(textWidth, mLayout.getLineWidth(i));
+            }
+            mGravityOffsetX = (int) ((boxWidth - textWidth) / 2);
+        }
+
+        if ((mGravity & Gravity.VERTICAL_GRAVITY_MASK) == Gravity.CENTER_VERTICAL) {
+            final int boxHeight = getHeight() - getPaddingTop() - getPaddingBottom();
+            final int textHeight = mLayout.getLineTop(Math.min(mMaxLines, mLayout.getLineCount()));
+            mGravityOffsetY = (boxHeight - textHeight) / 2;
+        }
+    }
+
     @Override
     protected void onMeasure(int widthMeasureSpec, int heightMeasureSpec) {
         final int widthMode = MeasureSpec.getMode(widthMeasureSpec);
@@ -327,6 +615,12 @@ public class TextUIElement extends UIElement {
         final int paddingLeft = getPaddingLeft();
         final int paddingRight = getPaddingRight();
 
+        if (isLongTextUsable() && widthMode != MeasureSpec.UNSPECIFIED) {
+            measureLongText(widthSize, heightMode, heightSize);
+            return;
+        }
+        releaseChunkedLayout();
+
         int width;
         int height;
 
@@ -340,13 +634,19 @@ public class TextUIElement extends UIElement {
         } else {
             if (mLayout != null && mEllipsize == null) {
                 desiredWidth = getDesiredWidth();
+                if (desiredWidth < 0 && widthMode == MeasureSpec.AT_MOST && mLayout instanceof IncrementalLayout
+                        && mLayout.getWidth() >= widthSize - paddingLeft - paddingRight) {
+                    // 已经有自动换行，不换行需要的宽度超过可用宽度，结果就是可用宽度，不需要遍历全文
+                    desiredWidth = mLayout.getWidth();
+                }
             }
 
-            if (desiredWidth < 0) {
-                boring = BoringLayout.isBoring(mText, mTextPaint, mBoring);
-                if (boring != null) {
-                    mBoring = boring;
-                }
+            if (desiredWidth < 0 && isPrecomputedUsable(widthMode, widthSize - paddingLeft - paddingRight)) {
+                // 工作线程已经算好，不再遍历全文
+                boring = mPrecomputed.getBoring();
+                desiredWidth = mPrecomputed.getDesiredWidth();
+            } else if (desiredWidth < 0) {
+                boring = isBoring(mTextPaint);
             } else {
                 fromExisting = true;
             }
@@ -381,7 +681,7 @@ public class TextUIElement extends UIElement {
             final boolean maxChanged = (mMaxLines != mOldMaxLines);
 
             if (layoutChanged || maxChanged) {
-                if (!maxChanged && widthChanged) {
+                if (!maxChanged && widthChanged && !mLayoutShared && !(mLayout instanceof IncrementalLayout)) {
                     mLayout.increaseWidthTo(unpaddedWidth);
                 } else {
                     makeNewLayout(unpaddedWidth, boring, unpaddedWidth, false);
@@ -401,6 +701,48 @@ public class TextUIElement extends UIElement {
         setMeasuredDimension(width, height);
     }
 
+    /**
+     * wrap_content时按预先算好的宽度得到的Layout宽度和PrecomputedLayout一致，makeNewLayout会直接使用它
+     */
+    private boolean isPrecomputedUsable(int widthMode, int availableWidth) {
+        if (mLayout != null || mPrecomputed == null) {
+            return false;
+        }
+
+        int unpaddedWidth = mPrecomputed.getDesiredWidth();
+        if (widthMode == MeasureSpec.AT_MOST) {
+            unpaddedWidth = Math.min(availableWidth, unpaddedWidth);
+        }
+        return mPrecomputed.isValidFor(newLayoutKey(unpaddedWidth, unpaddedWidth));
+    }
+
+    /**
+     * 长文本总是占满可用宽度，后台测量完成前高度中没有断过行的部分是估算值
+     */
+    private void measureLongText(int widthSize, int heightMode, int heightSize) {
+        final int unpaddedWidth = Math.max(0, widthSize - getPaddingLeft() - getPaddingRight());
+        if (mChunkedLayout == null
+                || !mChunkedLayout.canReuse(mText, mTextPaint, unpaddedWidth, mLayoutAlignment, mLineSpacingMult, mLineSpacingAdd)) {
+            releaseChunkedLayout();
+            mChunkedLayout = new ChunkedTextLayout(mText, mTextPaint, unpaddedWidth, mLayoutAlignment, mLineSpacingMult,
+                    mLineSpacingAdd, mIncludeFontPadding);
+        }
+        mLayout = null;
+        mGravityOffsetValid = false;
+
+        int height;
+        if (heightMode == MeasureSpec.EXACTLY) {
+            height = heightSize;
+        } else {
+            height = mChunkedLayout.getHeight() + getPaddingTop() + getPaddingBottom();
+
+            if (heightMode == MeasureSpec.AT_MOST) {
+                height = Math.min(heightSize, height);
+            }
+        }
+        setMeasuredDimension(widthSize, height);
+    }
+
     @Override
     public void drawableStateChanged() {
         if (mTextColor != null && mTextColor.isStateful()) {
@@ -515,6 +857,10 @@ public class TextUIElement extends UIElement {
             text = "";
         }
 
+        if (mPrecomputed != null && mPrecomputed.getText() != text) {
+            mPrecomputed = null;
+        }
+
         if (TextUtils.equals(mText, text)) {
             return;
         }
@@ -548,6 +894,21 @@ public class TextUIElement extends UIElement {
         setText(text, mBufferType);
     }
 
+    /**
+     * 设置在工作线程创建好的Layout，measure时宽度和排版参数都一致就直接使用，不在ui线程断行，
+     * 否则和setText一样重新创建
+     * 
+     * @param precomputed
+     */
+    public void setPrecomputedText(PrecomputedLayout precomputed) {
+        if (precomputed == null) {
+            throw new NullPointerException();
+        }
+
+        mPrecomputed = precomputed;
+        setText(precomputed.getText());
+    }
+
     public TextPaint getPaint() {
         return mTextPaint;
     }
@@ -557,6 +918,10 @@ public class TextUIElement extends UIElement {
     }
 
     public int getLineCount() {
+        if (mChunkedLayout != null) {
+            // 后台测量完成前包括估算的行数
+            return mChunkedLayout.getLineCount();
+        }
         return mLayout != null ? mLayout.getLineCount() : 0;
     }
 
@@ -586,6 +951,7 @@ public class TextUIElement extends UIElement {
         // }
 
         if (gravity != mGravity) {
+            mGravityOffsetValid = false;
             invalidate();
             // mLayoutAlignment = null;
         }
@@ -599,8 +965,9 @@ public class TextUIElement extends UIElement {
 
     public void setCompoundDrawablesWithIntrinsicBounds(int left, int top, int right, int bottom) {
         final Resources resources = getContext().getResources();
-        setCompoundDrawablesWithIntrinsicBounds(left != 0 ? resources.getDrawable(left) : null, top != 0 ? resources.getDrawable(top)
-                : null, right != 0 ? resources.getDrawable(right) : null, bottom != 0 ? resources.getDrawable(bottom) : null);
+        setCompoundDrawablesWithIntrinsicBounds(left != 0 ? DrawableCache.getDrawable(resources, left) : null,
+                top != 0 ? DrawableCache.getDrawable(resources, top) : null, right != 0 ? DrawableCache.getDrawable(resources, right)
+                        : null, bottom != 0 ? DrawableCache.getDrawable(resources, bottom) : null);
     }
 
     public void setCompoundDrawablesWithIntrinsicBounds(Drawable left, Drawable top, Drawable right, Drawable bottom) {
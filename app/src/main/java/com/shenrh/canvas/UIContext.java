@@ -16,6 +16,7 @@ package com.shenrh.canvas;
 
 import android.content.Context;
 import android.content.res.Resources;
+import android.graphics.Rect;
 import android.graphics.drawable.Drawable;
 
 /**
@@ -25,10 +26,27 @@ import android.graphics.drawable.Drawable;
 public interface UIContext {
     public void requestLayout();
 
+    /**
+     * 根element请求重新layout时调用，实现方可以在内部处理而不必触发Android的layout
+     */
+    public void requestElementLayout();
+
     public void invalidate();
 
     public void invalidate(int left, int top, int right, int bottom);
 
+    /**
+     * element的脏区域，实现方可以按帧合并，不影响{@link #invalidate(int, int, int, int)}
+     */
+    public void invalidateElementRect(int left, int top, int right, int bottom);
+
+    /**
+     * 宿主实际可见的区域，坐标为宿主自己的坐标，硬件加速时canvas的clip是整个宿主，需要用它确定可见范围
+     *
+     * @return 完全不可见或无法确定时返回false
+     */
+    public boolean getHostVisibleRect(Rect outRect);
+
     public int[] getDrawableState();
 
     public Context getContext();
@@ -50,6 +50,7 @@ public class UIElement implements Drawable.Callback{
     protected int mMeasuredHeight;
 
     private Rect mBounds = new Rect();
+    private Rect mDirtyRect;
     private Rect mPadding = new Rect();
 
     private LayoutParams mLayoutParams;
@@ -60,13 +61,35 @@ public class UIElement implements Drawable.Callback{
     private boolean mEnabled = true;
     private boolean mRequestLayout = false;
 
+    // layout 状态标记，参考View的PFLAG_FORCE_LAYOUT/PFLAG_LAYOUT_REQUIRED
+    static final int PFLAG_FORCE_LAYOUT = 1;
+    static final int PFLAG_LAYOUT_REQUIRED = 1 << 1;
+    static final int PFLAG_ABSOLUTE_OFFSET_VALID = 1 << 2;
+    // 命中measure缓存时没有调用onMeasure，参考View的PFLAG3_MEASURE_NEEDED_BEFORE_LAYOUT
+    static final int PFLAG_MEASURE_NEEDED_BEFORE_LAYOUT = 1 << 3;
+    int mPrivateFlags;
+
+    // 在UIView中的位置缓存
+    private int mAbsoluteLeft;
+    private int mAbsoluteTop;
+
+    private int mOldWidthMeasureSpec = Integer.MIN_VALUE;
+    private int mOldHeightMeasureSpec = Integer.MIN_VALUE;
+
+    // measure 缓存，key为(widthSpec, heightSpec)，value为(measuredWidth, measuredHeight)
+    private static final int MEASURE_CACHE_SIZE = 4;
+    private long[] mMeasureCacheKeys;
+    private long[] mMeasureCacheValues;
+    private int mMeasureCacheCount;
+    private int mMeasureCacheNext;
+
     private Drawable mBackGround;
     private boolean mIsOnTouch = false;// 当前是否处于touch状态
     private UIElement mLastTouchedUIElement;// 上一个被触摸的Element，在group的情况下可能会move走
     private UIElementGroup mLastTouchedUIElementGroup; // 上一个被触摸的ElementGroup
 
     private ListenerInfo mListenerInfo;
-    private int mTouchSlop;
+    private int mTouchSlop = -1;
     
     //Drawable State定义汇总
     private static int[][] VIEW_STATE_SETS;
@@ -132,7 +155,6 @@ public class UIElement implements Drawable.Callback{
 
     public UIElement(UIContext host, AttributeSet attrs) {
         setContext(host);
-        mTouchSlop = ViewConfiguration.get(getContext()).getScaledTouchSlop();
     }
 
     protected void onAttachedToWindow() {
@@ -238,17 +260,134 @@ public class UIElement implements Drawable.Callback{
         canvas.restoreToCount(saveCount);
     }
 
+    /**
+     * 没有调用过requestLayout且spec未变化时直接使用上次的结果，spec变化时先查measure缓存
+     *
+     * 命中缓存时只设置测量结果，子element和Layout等内部状态可能还是按其他spec算的，layout前再补一次onMeasure
+     */
     public final void measure(int widthMeasureSpec, int heightMeasureSpec) {
-        onMeasure(widthMeasureSpec, heightMeasureSpec);
+        final boolean forceLayout = (mPrivateFlags & PFLAG_FORCE_LAYOUT) == PFLAG_FORCE_LAYOUT;
+        final boolean specChanged = widthMeasureSpec != mOldWidthMeasureSpec || heightMeasureSpec != mOldHeightMeasureSpec;
+
+        if (!forceLayout && !specChanged) {
+            return;
+        }
+
+        final long key = (long) widthMeasureSpec << 32 | (long) heightMeasureSpec & 0xffffffffL;
+        final int cacheIndex = forceLayout ? -1 : indexOfMeasureCache(key);
+        if (cacheIndex < 0) {
+            onMeasure(widthMeasureSpec, heightMeasureSpec);
+            mPrivateFlags &= ~PFLAG_MEASURE_NEEDED_BEFORE_LAYOUT;
+        } else {
+            final long value = mMeasureCacheValues[cacheIndex];
+            setMeasuredDimension((int) (value >> 32), (int) value);
+            mPrivateFlags |= PFLAG_MEASURE_NEEDED_BEFORE_LAYOUT;
+        }
+
+        mPrivateFlags |= PFLAG_LAYOUT_REQUIRED;
+        mOldWidthMeasureSpec = widthMeasureSpec;
+        mOldHeightMeasureSpec = heightMeasureSpec;
+
+        putMeasureCache(key, (long) mMeasuredWidth << 32 | (long) mMeasuredHeight & 0xffffffffL);
+    }
+
+    private int indexOfMeasureCache(long key) {
+        for (int i = 0; i < mMeasureCacheCount; i++) {
+            if (mMeasureCacheKeys[i] == key) {
+                return i;
+            }
+        }
+        return -1;
     }
 
+    private void putMeasureCache(long key, long value) {
+        if (mMeasureCacheKeys == null) {
+            mMeasureCacheKeys = new long[MEASURE_CACHE_SIZE];
+            mMeasureCacheValues = new long[MEASURE_CACHE_SIZE];
+        }
+
+        int index = indexOfMeasureCache(key);
+        if (index < 0) {
+            if (mMeasureCacheCount < MEASURE_CACHE_SIZE) {
+                index = mMeasureCacheCount++;
+            } else {
+                index = mMeasureCacheNext;
+                mMeasureCacheNext = (mMeasureCacheNext + 1) % MEASURE_CACHE_SIZE;
+            }
+            mMeasureCacheKeys[index] = key;
+        }
+        mMeasureCacheValues[index] = value;
+    }
+
+    private void clearMeasureCache() {
+        mMeasureCacheCount = 0;
+        mMeasureCacheNext = 0;
+    }
+
+    /**
+     * 位置和大小都没变化且没有重新measure过的element不再调用onLayout
+     */
     public final void layout(int left, int top, int right, int bottom) {
+        if ((mPrivateFlags & PFLAG_MEASURE_NEEDED_BEFORE_LAYOUT) == PFLAG_MEASURE_NEEDED_BEFORE_LAYOUT) {
+            onMeasure(mOldWidthMeasureSpec, mOldHeightMeasureSpec);
+            mPrivateFlags &= ~PFLAG_MEASURE_NEEDED_BEFORE_LAYOUT;
+            mPrivateFlags |= PFLAG_LAYOUT_REQUIRED;
+        }
+
+        final boolean changed = mBounds.left != left || mBounds.top != top || mBounds.right != right || mBounds.bottom != bottom;
+
+        if (changed) {
+            // 旧的位置和新的位置都需要重绘
+            invalidateInParent(Math.min(left, mBounds.left), Math.min(top, mBounds.top), Math.max(right, mBounds.right),
+                    Math.max(bottom, mBounds.bottom));
+        }
+
         mBounds.left = left;
         mBounds.top = top;
         mBounds.right = right;
         mBounds.bottom = bottom;
 
-        onLayout(left, top, right, bottom);
+        if (changed) {
+            invalidateAbsoluteOffset();
+            ensureAbsoluteOffset();
+        }
+
+        if (changed || (mPrivateFlags & PFLAG_LAYOUT_REQUIRED) == PFLAG_LAYOUT_REQUIRED) {
+            onLayout(left, top, right, bottom);
+            mPrivateFlags &= ~PFLAG_LAYOUT_REQUIRED;
+            onBoundsChanged();
+        }
+
+        mPrivateFlags &= ~PFLAG_FORCE_LAYOUT;
+    }
+
+    /**
+     * 每次onLayout之后调用，自己或子element的位置可能已经变化
+     */
+    protected void onBoundsChanged() {
+    }
+
+    /**
+     * 内容变化后按上一次的spec直接重新measure，测量结果不变时调用方可以不请求父element重新layout
+     *
+     * @return 测量结果是否变化，没有measure过时返回true
+     */
+    /* package */boolean remeasureWithLastSpecs() {
+        if (mOldWidthMeasureSpec == Integer.MIN_VALUE) {
+            return true;
+        }
+
+        final int oldWidth = mMeasuredWidth;
+        final int oldHeight = mMeasuredHeight;
+        // 其他spec的缓存结果已经过期
+        clearMeasureCache();
+        onMeasure(mOldWidthMeasureSpec, mOldHeightMeasureSpec);
+        mPrivateFlags &= ~PFLAG_MEASURE_NEEDED_BEFORE_LAYOUT;
+        return mMeasuredWidth != oldWidth || mMeasuredHeight != oldHeight;
+    }
+
+    public boolean isLayoutRequested() {
+        return (mPrivateFlags & PFLAG_FORCE_LAYOUT) == PFLAG_FORCE_LAYOUT;
     }
 
     public int getLeft() {
@@ -303,64 +442,122 @@ public class UIElement implements Drawable.Callback{
     	return mContext == null ? null : mContext.getResources();
     }
 
+    /**
+     * 标记自己需要重新measure，并沿父group向上传递，只有根element才通知UIContext
+     */
     public void requestLayout() {
-        if (mContext == null) {
-            return;
+        markLayoutRequested();
+        requestParentLayout();
+    }
+
+    void markLayoutRequested() {
+        clearMeasureCache();
+        mPrivateFlags |= PFLAG_FORCE_LAYOUT;
+    }
+
+    void requestParentLayout() {
+        if (mParent != null) {
+            if (!mParent.isLayoutRequested()) {
+                mParent.requestLayout();
+            }
+        } else if (mContext != null) {
+            mContext.requestElementLayout();
         }
-        mContext.requestLayout();
     }
 
     public void invalidate() {
-        if (mContext == null) {
-            return;
-        }
-        mContext.invalidate(mBounds.left, mBounds.top, mBounds.right, mBounds.bottom);
+        invalidate(0, 0, getWidth(), getHeight());
     }
 
+    /**
+     * l t r b是相对自己左上角的坐标，和Android view一致
+     */
     public void invalidate(int l, int t, int r, int b) {
+        invalidateInParent(l + mBounds.left, t + mBounds.top, r + mBounds.left, b + mBounds.top);
+    }
+
+    /**
+     * 脏区域为父group中的坐标，沿group链转换成UIView中的坐标
+     */
+    private void invalidateInParent(int l, int t, int r, int b) {
         if (mContext == null) {
             return;
         }
-        mContext.invalidate(l, t, r, b);
+
+        if (mDirtyRect == null) {
+            mDirtyRect = new Rect();
+        }
+        final Rect dirty = mDirtyRect;
+        dirty.set(l, t, r, b);
+
+        if (mParent != null) {
+            mParent.invalidateChild(dirty);
+        } else {
+            mContext.invalidateElementRect(dirty.left, dirty.top, dirty.right, dirty.bottom);
+        }
     }
 
     /**
-     * 目前只支持两层包含关系 LinearLayoutUIElement UIElementGroup UIElement
+     * 父group坐标系的原点在UIView中的位置，没有父group时为0
      * 
      * @return
      */
     public int getElementTop() {
-        int top = 0;
-
-        if (getParent() != null) {
-            if (getParent().getParent() != null && getParent().getParent() instanceof LinearLayoutUIElement) {
-                top = getParent().getElementTop(this);
-            } else {
-                top = getParent().getTop();
-            }
-        }
-        return top;
+        return mParent != null ? mParent.getAbsoluteTop() : 0;
     }
 
     /**
-     * 目前只支持两层包含关系 LinearLayoutUIElement UIElementGroup UIElement
+     * 父group坐标系的原点在UIView中的位置，没有父group时为0
      * 
      * @return
      */
     public int getElementLeft() {
-        int left = 0;
-        if (getParent() != null) {
-            if (getParent().getParent() != null && getParent().getParent() instanceof LinearLayoutUIElement) {
-                left = getParent().getElementLeft(this);
-            } else {
-                left = getParent().getLeft();
-            }
+        return mParent != null ? mParent.getAbsoluteLeft() : 0;
+    }
+
+    /**
+     * 自己在UIView中的位置，layout时计算并缓存，祖先element移动后重新计算
+     * 
+     * @return
+     */
+    public int getAbsoluteLeft() {
+        ensureAbsoluteOffset();
+        return mAbsoluteLeft;
+    }
+
+    public int getAbsoluteTop() {
+        ensureAbsoluteOffset();
+        return mAbsoluteTop;
+    }
+
+    private void ensureAbsoluteOffset() {
+        if ((mPrivateFlags & PFLAG_ABSOLUTE_OFFSET_VALID) == PFLAG_ABSOLUTE_OFFSET_VALID) {
+            return;
+        }
+
+        if (mParent != null) {
+            mAbsoluteLeft = mParent.getAbsoluteLeft() + mBounds.left;
+            mAbsoluteTop = mParent.getAbsoluteTop() + mBounds.top;
+        } else {
+            mAbsoluteLeft = mBounds.left;
+            mAbsoluteTop = mBounds.top;
         }
-        return left;
+        mPrivateFlags |= PFLAG_ABSOLUTE_OFFSET_VALID;
     }
 
     /**
-     * x y是在elementgroup中的位置，不同于Android view相对于自己的位置
+     * 缓存失效时所有子孙element的缓存也都是失效的，group会继续向下传递
+     */
+    void invalidateAbsoluteOffset() {
+        mPrivateFlags &= ~PFLAG_ABSOLUTE_OFFSET_VALID;
+    }
+
+    boolean isAbsoluteOffsetValid() {
+        return (mPrivateFlags & PFLAG_ABSOLUTE_OFFSET_VALID) == PFLAG_ABSOLUTE_OFFSET_VALID;
+    }
+
+    /**
+     * x y是在UIView中的位置，不同于Android view相对于自己的位置
      * 
      * @param x
      * @param y
@@ -378,8 +575,9 @@ public class UIElement implements Drawable.Callback{
             mright = ((MarginLayoutParams) mLayoutParams).rightMargin;
         }
 
-        return x - getElementLeft() >= mBounds.left - mleft && y - getElementTop() >= mBounds.top - mtop
-                && x - getElementLeft() <= mBounds.right + mbottom && y - getElementTop() <= mBounds.bottom + mright;
+        final int left = getAbsoluteLeft();
+        final int top = getAbsoluteTop();
+        return x >= left - mleft && y >= top - mtop && x <= left + getWidth() + mright && y <= top + getHeight() + mbottom;
     }
 
     public void setClickable(boolean clickable) {
@@ -411,7 +609,7 @@ public class UIElement implements Drawable.Callback{
 	public void setBackgroundResource(int resid) {
         Drawable d = null;
         if (resid != 0) {
-            d = mContext.getResources().getDrawable(resid);
+            d = DrawableCache.getDrawable(mContext.getResources(), resid);
         }
         setBackground(d);
     }
@@ -443,6 +641,7 @@ public class UIElement implements Drawable.Callback{
     private void refreshTouchState(MotionEvent event) {
         switch (event.getAction()) {
         case MotionEvent.ACTION_UP:
+        case MotionEvent.ACTION_CANCEL:
             if (mIsOnTouch) {
                 mIsOnTouch = false;
                 drawableStateChanged();
@@ -457,7 +656,13 @@ public class UIElement implements Drawable.Callback{
             break;
 
         case MotionEvent.ACTION_MOVE:
- 	  	   	break;
+            // move事件始终交给down时的element，移出范围后取消按下状态
+            if (mIsOnTouch && !isTouchOnElement((int) event.getX(), (int) event.getY())) {
+                mIsOnTouch = false;
+                drawableStateChanged();
+                invalidate();
+            }
+            break;
 
         }
     }
@@ -479,12 +684,11 @@ public class UIElement implements Drawable.Callback{
         return this;
     }
 
-    private boolean dispatchTouchEvent(MotionEvent event) {
-        if (this instanceof UIElementGroup) {
-            return ((UIElementGroup) this).internalTouchEvent(event);
-        } else {
-            return onTouchEvent(event);
-        }
+    /**
+     * group先分发给子element
+     */
+    /* package */boolean dispatchTouchEvent(MotionEvent event) {
+        return onTouchEvent(event);
     }
 
     private int downEventX = 0, downEventY = 0;
@@ -501,13 +705,24 @@ public class UIElement implements Drawable.Callback{
 
         case MotionEvent.ACTION_UP:
         case MotionEvent.ACTION_CANCEL:
-            if (Math.abs(downEventX - event.getX()) < mTouchSlop && Math.abs(downEventY - event.getY()) < mTouchSlop) {
+            final int touchSlop = getTouchSlop();
+            if (Math.abs(downEventX - event.getX()) < touchSlop && Math.abs(downEventY - event.getY()) < touchSlop) {
                 dispatchClick(downEventX, downEventY);
             }
             break;
         }
     }
 
+    /**
+     * ViewConfiguration.get不是线程安全的，element可能在非ui线程创建，所以在ui线程处理touch时才获取
+     */
+    private int getTouchSlop() {
+        if (mTouchSlop < 0) {
+            mTouchSlop = ViewConfiguration.get(getContext()).getScaledTouchSlop();
+        }
+        return mTouchSlop;
+    }
+
     private boolean mIntercept = false;
 
     protected boolean isInterceptClick() {
@@ -523,17 +738,31 @@ public class UIElement implements Drawable.Callback{
         mIntercept = intercept;
     }
 
-    private boolean dispatchClick(int x, int y) {
-        if (this instanceof UIElementGroup) {
-            return ((UIElementGroup) this).internalOnclick(x, y);
-        } else {
-            if (!isChild()) {// 作为子控件的情况已经在父控件分发的情况下处理过了，避免触发两次
-                return callOnClick();
-            }
+    /**
+     * group先分发给子element
+     */
+    /* package */boolean dispatchClick(int x, int y) {
+        if (!isChild()) {// 作为子控件的情况已经在父控件分发的情况下处理过了，避免触发两次
+            return callOnClick();
         }
         return false;
     }
 
+    /**
+     * 是否有子Element响应了onTouchEvent
+     * 
+     * @return
+     */
+    public boolean isChildResponseTouch() {
+        return false;
+    }
+
+    /**
+     * 一次touch事件序列结束
+     */
+    /* package */void clearTouchTarget() {
+    }
+
     public final boolean touchEvent(MotionEvent event) {
         boolean status = dispatchTouchEvent(event);
         if (status) {
@@ -545,16 +774,16 @@ public class UIElement implements Drawable.Callback{
                 }
                 mLastTouchedUIElement = getTouchedElement();
             }
-            if (this instanceof UIElementGroup) {
-                if (((UIElementGroup) this).isChildResponseTouch()) {
-                    // 子element已经处理
-                } else {
-                    refreshTouchState(event);
-                }
-            } else {
+            // 子element已经处理时不刷新自己的状态
+            if (!isChildResponseTouch()) {
                 refreshTouchState(event);
             }
         }
+
+        final int action = event.getAction();
+        if (action == MotionEvent.ACTION_UP || action == MotionEvent.ACTION_CANCEL) {
+            clearTouchTarget();
+        }
         return status;
     }
 
@@ -636,6 +865,7 @@ public class UIElement implements Drawable.Callback{
 
     void setParent(UIElementGroup parent) {
         mParent = parent;
+        invalidateAbsoluteOffset();
     }
 
     public boolean isChild() {
@@ -764,7 +994,7 @@ public class UIElement implements Drawable.Callback{
         }
 
         if (mBackGround == who) {
-            mContext.invalidate();
+            invalidate();
         } else {
             mContext.invalidateDrawable(who);
         }
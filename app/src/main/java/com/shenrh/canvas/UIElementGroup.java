@@ -18,6 +18,7 @@
 package com.shenrh.canvas;
 
 import android.graphics.Canvas;
+import android.graphics.Rect;
 import android.util.AttributeSet;
 import android.view.MotionEvent;
 import android.view.View;
@@ -31,6 +32,20 @@ public abstract class UIElementGroup extends UIElement {
     private final List<UIElement> mElements;
     private boolean mIsChildResponseTouch = false;
     private UIElement mTouchedUIElement;
+    // ACTION_DOWN时响应事件的子element，没有子element响应时为自己
+    private UIElement mTouchTarget;
+
+    // 可选的点击检测网格，子element较多时使用
+    private HitTestGrid mHitTestGrid;
+    private boolean mHitTestGridDirty;
+    // findElementsByPoint的结果列表，点击回调中可能再次分发到本group，每层使用自己的列表
+    private final ArrayList<ArrayList<UIElement>> mHitElementLists = new ArrayList<ArrayList<UIElement>>();
+    private int mHitElementDepth;
+
+    // beginUpdate/endUpdate之间只记录layout请求和脏区域(本group坐标)
+    private int mBatchDepth;
+    private boolean mBatchLayoutRequested;
+    private Rect mBatchDirtyRect;
 
     public UIElementGroup(UIContext host) {
         this(host, null);
@@ -84,7 +99,8 @@ public abstract class UIElementGroup extends UIElement {
         canvas.save();
 
         for (UIElement element : mElements) {
-            if (element.getVisibility() == View.VISIBLE) {
+            if (element.getVisibility() == View.VISIBLE && !canvas.quickReject(element.getLeft(), element.getTop(),
+                    element.getRight(), element.getBottom(), Canvas.EdgeType.BW)) {
                 element.draw(canvas);
             }
         }
@@ -92,6 +108,98 @@ public abstract class UIElementGroup extends UIElement {
         canvas.restoreToCount(saveCount);
     }
 
+    /**
+     * dirty为本group中的坐标，裁剪到自己的范围后转换成父group中的坐标继续向上传递
+     * 
+     * @param dirty
+     */
+    void invalidateChild(Rect dirty) {
+        if (!dirty.intersect(0, 0, getWidth(), getHeight())) {
+            return;
+        }
+
+        if (mBatchDepth > 0) {
+            addBatchDirtyRect(dirty.left, dirty.top, dirty.right, dirty.bottom);
+            return;
+        }
+
+        dirty.offset(getLeft(), getTop());
+
+        if (getParent() != null) {
+            getParent().invalidateChild(dirty);
+        } else if (mContext != null) {
+            mContext.invalidateElementRect(dirty.left, dirty.top, dirty.right, dirty.bottom);
+        }
+    }
+
+    @Override
+    public void invalidate(int l, int t, int r, int b) {
+        if (mBatchDepth > 0) {
+            addBatchDirtyRect(l, t, r, b);
+            return;
+        }
+        super.invalidate(l, t, r, b);
+    }
+
+    @Override
+    public void requestLayout() {
+        if (mBatchDepth > 0) {
+            markLayoutRequested();
+            mBatchLayoutRequested = true;
+            return;
+        }
+        super.requestLayout();
+    }
+
+    private void addBatchDirtyRect(int l, int t, int r, int b) {
+        if (mBatchDirtyRect == null) {
+            mBatchDirtyRect = new Rect();
+        }
+        mBatchDirtyRect.union(l, t, r, b);
+    }
+
+    /**
+     * 开始批量更新，到对应的endUpdate之前子element的add/remove、setText、setPadding、setVisibility等只记录状态，
+     * endUpdate时最多触发一次layout和一次重绘，可以嵌套调用
+     */
+    public void beginUpdate() {
+        mBatchDepth++;
+    }
+
+    public void endUpdate() {
+        if (mBatchDepth == 0) {
+            throw new IllegalStateException("endUpdate() without matching beginUpdate()");
+        }
+
+        if (--mBatchDepth > 0) {
+            return;
+        }
+
+        if (mBatchLayoutRequested) {
+            mBatchLayoutRequested = false;
+            requestParentLayout();
+        }
+
+        if (mBatchDirtyRect != null && !mBatchDirtyRect.isEmpty()) {
+            final Rect dirty = mBatchDirtyRect;
+            invalidate(dirty.left, dirty.top, dirty.right, dirty.bottom);
+            dirty.setEmpty();
+        }
+    }
+
+    public void runBatched(Runnable action) {
+        beginUpdate();
+        try {
+            action.run();
+        } finally {
+            endUpdate();
+        }
+    }
+
+    public boolean isInBatch() {
+        return mBatchDepth > 0;
+    }
+
     @Override
     public void drawableStateChanged() {
         for (UIElement element : mElements) {
@@ -120,18 +228,41 @@ public abstract class UIElementGroup extends UIElement {
         element.setParent(this);// 设置父控件
         element.setLayoutParams(lp);
         mElements.add(element);
+        mHitTestGridDirty = true;
         requestLayout();
     }
 
     public void removeElement(UIElement element) {
-        mElements.remove(element);
+        if (mElements.remove(element)) {
+            detachElement(element);
+        }
+        mHitTestGridDirty = true;
         requestLayout();
     }
 
+    /**
+     * 只触发一次layout和重绘
+     */
     public void removeAllElements() {
-        List<UIElement> elements = new ArrayList<UIElement>(mElements);// Collections.copy(dest,src);
-        for (UIElement element : elements) {
-            removeElement(element);
+        if (mElements.isEmpty()) {
+            return;
+        }
+
+        for (int i = 0; i < mElements.size(); i++) {
+            detachElement(mElements.get(i));
+        }
+        mElements.clear();
+        mHitTestGridDirty = true;
+        requestLayout();
+    }
+
+    private void detachElement(UIElement element) {
+        if (element.getVisibility() == View.VISIBLE) {
+            invalidate(element.getLeft(), element.getTop(), element.getRight(), element.getBottom());
+        }
+        element.setParent(null);
+        if (mTouchTarget == element) {
+            mTouchTarget = null;
         }
     }
 
@@ -265,11 +396,7 @@ public abstract class UIElementGroup extends UIElement {
         return MeasureSpec.makeMeasureSpec(resultSize, resultMode);
     }
 
-    /**
-     * 是否有子Element响应了onTouchEvent
-     * 
-     * @return
-     */
+    @Override
     public boolean isChildResponseTouch() {
         return mIsChildResponseTouch;
     }
@@ -279,36 +406,35 @@ public abstract class UIElementGroup extends UIElement {
     }
 
     /**
-     * 改element在group中的起始位置
+     * element所在坐标系(即本group)的原点在UIView中的位置
      * 
      * @param element
      * @return
      */
     public int getElementTop(UIElement element) {
-        int top = 0;
-        if (getParent() != null) {
-            top = getParent().getElementTop(this);
-        } else {
-            top = element.getTop();
-        }
-
-        return top;
+        return getAbsoluteTop();
     }
 
     /**
-     * 改element在group中的起始位置
+     * element所在坐标系(即本group)的原点在UIView中的位置
      * 
      * @param element
      * @return
      */
     public int getElementLeft(UIElement element) {
-        int left = 0;
-        if (getParent() != null) {
-            left = getParent().getElementLeft(this);
-        } else {
-            left = element.getLeft();
+        return getAbsoluteLeft();
+    }
+
+    @Override
+    void invalidateAbsoluteOffset() {
+        if (!isAbsoluteOffsetValid()) {
+            return;
+        }
+
+        super.invalidateAbsoluteOffset();
+        for (UIElement element : mElements) {
+            element.invalidateAbsoluteOffset();
         }
-        return left;
     }
 
     /**
@@ -333,50 +459,151 @@ public abstract class UIElementGroup extends UIElement {
         return 0;
     }
 
-    final UIElement getElementByPoint(int x, int y) {
-        for (UIElement element : mElements) {
-            if (element.getVisibility() == View.VISIBLE) {
-                if (element.isTouchOnElement(x, y)) {
-                    return element;
-                }
+    /**
+     * 开启后点击检测先通过网格找到候选子element，再逐个判断，适合子element很多的group
+     * 
+     * @param enabled
+     */
+    public void setHitTestIndexEnabled(boolean enabled) {
+        if (enabled == (mHitTestGrid != null)) {
+            return;
+        }
+
+        mHitTestGrid = enabled ? new HitTestGrid() : null;
+        mHitTestGridDirty = true;
+    }
+
+    public boolean isHitTestIndexEnabled() {
+        return mHitTestGrid != null;
+    }
+
+    /* package */void markHitTestIndexDirty() {
+        mHitTestGridDirty = true;
+    }
+
+    @Override
+    protected void onBoundsChanged() {
+        markHitTestIndexDirty();
+    }
+
+    /**
+     * 按z-order从高到低返回包含该点的可见子element，x y是在UIView中的位置
+     * 
+     * 用完后需要调用{@link #recycleHitElements(ArrayList)}
+     * 
+     * @param x
+     * @param y
+     * @return
+     */
+    /* package */ArrayList<UIElement> findElementsByPoint(int x, int y) {
+        if (mHitElementDepth == mHitElementLists.size()) {
+            mHitElementLists.add(new ArrayList<UIElement>());
+        }
+        final ArrayList<UIElement> result = mHitElementLists.get(mHitElementDepth++);
+        result.clear();
+
+        if (mHitTestGrid != null) {
+            if (mHitTestGridDirty) {
+                mHitTestGrid.build(mElements, getWidth(), getHeight());
+                mHitTestGridDirty = false;
+            }
+
+            final HitTestGrid grid = mHitTestGrid;
+            final int cell = grid.getCell(x - getAbsoluteLeft(), y - getAbsoluteTop());
+            for (int i = grid.getCount(cell) - 1; i >= 0; i--) {
+                addIfTouched(mElements.get(grid.getElementIndex(cell, i)), x, y, result);
+            }
+        } else {
+            for (int i = mElements.size() - 1; i >= 0; i--) {
+                addIfTouched(mElements.get(i), x, y, result);
             }
         }
-        return this;
+
+        return result;
     }
 
-    /* package */final boolean internalOnclick(int x, int y) {
-        for (UIElement element : mElements) {
-            if (element.getVisibility() == View.VISIBLE) {
-                if (element.isTouchOnElement(x, y)) {
-                    if (element.isInterceptClick()) {
-                        return element.callOnClick();
-                    }
+    /* package */void recycleHitElements(ArrayList<UIElement> elements) {
+        elements.clear();
+        mHitElementDepth--;
+    }
+
+    private static void addIfTouched(UIElement element, int x, int y, List<UIElement> result) {
+        if (element.getVisibility() == View.VISIBLE && element.isTouchOnElement(x, y)) {
+            result.add(element);
+        }
+    }
+
+    final UIElement getElementByPoint(int x, int y) {
+        final ArrayList<UIElement> elements = findElementsByPoint(x, y);
+        final UIElement element = elements.isEmpty() ? this : elements.get(0);
+        recycleHitElements(elements);
+        return element;
+    }
+
+    @Override
+    /* package */final boolean dispatchClick(int x, int y) {
+        if (mTouchTarget != null) {
+            if (mTouchTarget != this && mTouchTarget.isInterceptClick()) {
+                return mTouchTarget.callOnClick();
+            }
+            return callOnClick();
+        }
+
+        UIElement clickTarget = null;
+        final ArrayList<UIElement> elements = findElementsByPoint(x, y);
+        try {
+            for (int i = 0; i < elements.size(); i++) {
+                final UIElement element = elements.get(i);
+                if (element.isInterceptClick()) {
+                    clickTarget = element;
+                    break;
                 }
             }
+        } finally {
+            recycleHitElements(elements);
         }
+
         // 子控件没有响应父控件直接响应
-        return callOnClick();
+        return clickTarget != null ? clickTarget.callOnClick() : callOnClick();
     }
 
-    /* package */final boolean internalTouchEvent(MotionEvent event) {
+    @Override
+    /* package */final boolean dispatchTouchEvent(MotionEvent event) {
+        if (event.getAction() != MotionEvent.ACTION_DOWN && mTouchTarget != null) {
+            // 后续事件直接交给ACTION_DOWN时捕获的element，不再重新查找
+            if (mTouchTarget == this) {
+                return onTouchEvent(event);
+            }
+            return mTouchTarget.touchEvent(event);
+        }
+
         final int x = (int) event.getX();
         final int y = (int) event.getY();
-        for (UIElement element : mElements) {
-            if (element.getVisibility() == View.VISIBLE) {
-                if (element.isTouchOnElement(x, y)) {
-                    mTouchedUIElement = element;
-                    if (element.touchEvent(event)) {
-                        mIsChildResponseTouch = true;
-                        return true;
-                    }
+        final ArrayList<UIElement> elements = findElementsByPoint(x, y);
+        try {
+            for (int i = 0; i < elements.size(); i++) {
+                final UIElement element = elements.get(i);
+                mTouchedUIElement = element;
+                if (element.touchEvent(event)) {
+                    mTouchTarget = element;
+                    mIsChildResponseTouch = true;
+                    return true;
                 }
             }
+        } finally {
+            recycleHitElements(elements);
         }
         mTouchedUIElement = this;
+        mTouchTarget = this;
         mIsChildResponseTouch = false;
         return onTouchEvent(event);
     }
 
+    @Override
+    /* package */void clearTouchTarget() {
+        mTouchTarget = null;
+    }
+
     protected final UIElement getTouchedElement() {
         return mTouchedUIElement;
     }
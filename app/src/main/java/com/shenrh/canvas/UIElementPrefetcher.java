@@ -0,0 +1,270 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.shenrh.canvas;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import android.content.Context;
+import android.os.Process;
+
+/**
+ * 列表item的预layout，在固定数量的工作线程中创建、绑定并measure/layout即将显示的element树，
+ * 完成的结果按adapter position保存，getView时通过{@link #take(int)}取出交给UIView
+ *
+ * @author shenrh
+ *
+ */
+public class UIElementPrefetcher<T> {
+    private static final String LOGTAG = "UIElementPrefetcher";
+    private static final long KEEP_ALIVE_SECONDS = 30;
+
+    /**
+     * 在工作线程调用，使用传入的context创建element并绑定数据
+     */
+    public interface RowBinder<T> {
+        UIElement bindElement(UIContext context, T model, int position);
+    }
+
+    private final DetachedUIContext mContext;
+    private final RowBinder<T> mBinder;
+    private final ThreadPoolExecutor mExecutor;
+
+    private final ConcurrentHashMap<Integer, UIElement> mReadyElements = new ConcurrentHashMap<Integer, UIElement>();
+    private final ConcurrentHashMap<Integer, Future<?>> mPendingTasks = new ConcurrentHashMap<Integer, Future<?>>();
+
+    // 取消时递增，旧任务完成后发现不一致直接丢弃结果
+    private final AtomicInteger mGeneration = new AtomicInteger();
+    private int mWidth = -1;
+    private int mLastStartPosition = -1;
+    private boolean mForward = true;
+
+    private final AtomicInteger mCompletedCount = new AtomicInteger();
+    private final AtomicLong mBusyStartNanos = new AtomicLong();
+    private final AtomicLong mBusyNanos = new AtomicLong();
+    private final AtomicInteger mRunningCount = new AtomicInteger();
+
+    public UIElementPrefetcher(Context context, RowBinder<T> binder, int parallelism) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("parallelism must be >= 1");
+        }
+
+        mContext = new DetachedUIContext(context);
+        mBinder = binder;
+        mExecutor = new ThreadPoolExecutor(parallelism, parallelism, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                    private final AtomicInteger mCount = new AtomicInteger();
+
+                    @Override
+                    public Thread newThread(final Runnable r) {
+                        return new Thread(new Runnable() {
+                            @Override
+                            public void run() {
+                                Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                                r.run();
+                            }
+                        }, LOGTAG + " #" + mCount.incrementAndGet());
+                    }
+                });
+        mExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * 预layout从startPosition开始的一批数据，滚动方向和上一批相反时取消还没完成的任务，ui线程调用
+     *
+     * @param startPosition models第一个数据的adapter position
+     * @param models
+     * @param width UIView去掉左右padding后的宽度
+     */
+    public void prefetch(int startPosition, List<T> models, final int width) {
+        if (width != mWidth) {
+            invalidate();
+            mWidth = width;
+        } else if (mLastStartPosition >= 0) {
+            final boolean forward = startPosition >= mLastStartPosition;
+            if (forward != mForward) {
+                cancel();
+            }
+            mForward = forward;
+        }
+        mLastStartPosition = startPosition;
+
+        final int generation = mGeneration.get();
+        for (int i = 0; i < models.size(); i++) {
+            final Integer position = startPosition + i;
+            final Future<?> pending = mPendingTasks.get(position);
+            if (mReadyElements.containsKey(position) || (pending != null && !pending.isDone())) {
+                continue;
+            }
+
+            final T model = models.get(i);
+            // 先put再execute，任务结束时只移除自己，不会误删同一position后提交的新任务
+            final RowTask task = new RowTask(position, new Runnable() {
+                @Override
+                public void run() {
+                    layoutRow(generation, model, position, width);
+                }
+            });
+            mPendingTasks.put(position, task);
+            mExecutor.execute(task);
+        }
+    }
+
+    private final class RowTask extends FutureTask<Void> {
+        private final Integer mPosition;
+
+        RowTask(Integer position, Runnable runnable) {
+            super(runnable, null);
+            mPosition = position;
+        }
+
+        /**
+         * 完成或取消时调用
+         */
+        @Override
+        protected void done() {
+            mPendingTasks.remove(mPosition, this);
+        }
+    }
+
+    private void layoutRow(int generation, T model, Integer position, int width) {
+        try {
+            if (generation != mGeneration.get()) {
+                return;
+            }
+
+            if (mRunningCount.getAndIncrement() == 0) {
+                mBusyStartNanos.set(System.nanoTime());
+            }
+            try {
+                final UIElement element = mBinder.bindElement(mContext, model, position);
+                if (element == null) {
+                    return;
+                }
+                DetachedUIContext.layoutElement(element, width);
+
+                if (generation == mGeneration.get()) {
+                    mReadyElements.put(position, element);
+                    mCompletedCount.incrementAndGet();
+                    // put期间被invalidate时，clear可能已经先执行
+                    if (generation != mGeneration.get()) {
+                        mReadyElements.remove(position, element);
+                    }
+                }
+            } finally {
+                if (mRunningCount.decrementAndGet() == 0) {
+                    mBusyNanos.addAndGet(System.nanoTime() - mBusyStartNanos.get());
+                }
+            }
+        } catch (RuntimeException e) {
+            UILog.e(LOGTAG, "prefetch failed, position:" + position, e);
+        }
+    }
+
+    /**
+     * 取出已经layout好的element，没有时返回null，ui线程调用
+     *
+     * @param position
+     * @return
+     */
+    public UIElement take(int position) {
+        return mReadyElements.remove(position);
+    }
+
+    /**
+     * 取消所有还没完成的任务，已经完成的结果保留
+     */
+    public void cancel() {
+        mGeneration.incrementAndGet();
+        for (Future<?> future : mPendingTasks.values()) {
+            future.cancel(false);
+        }
+        mPendingTasks.clear();
+        // 取消的任务仍留在队列中，直到轮到执行
+        mExecutor.purge();
+    }
+
+    /**
+     * 数据或宽度变化时调用，取消所有任务并丢弃已完成的结果，ui线程调用
+     */
+    public void invalidate() {
+        cancel();
+        mReadyElements.clear();
+    }
+
+    /**
+     * 丢弃[first, last]范围外已完成的结果
+     *
+     * @param first
+     * @param last
+     */
+    public void trim(int first, int last) {
+        final Iterator<Integer> iterator = mReadyElements.keySet().iterator();
+        while (iterator.hasNext()) {
+            final int position = iterator.next();
+            if (position < first || position > last) {
+                iterator.remove();
+            }
+        }
+    }
+
+    public void shutdown() {
+        invalidate();
+        mExecutor.shutdownNow();
+    }
+
+    /**
+     * 等待处理的任务数
+     *
+     * @return
+     */
+    public int getQueueDepth() {
+        return mExecutor.getQueue().size();
+    }
+
+    /**
+     * 已完成还没被取走的数量
+     *
+     * @return
+     */
+    public int getReadyCount() {
+        return mReadyElements.size();
+    }
+
+    public int getCompletedCount() {
+        return mCompletedCount.get();
+    }
+
+    /**
+     * 工作线程忙碌期间的吞吐量
+     *
+     * @return
+     */
+    public float getRowsPerSecond() {
+        long busyNanos = mBusyNanos.get();
+        if (mRunningCount.get() > 0) {
+            busyNanos += System.nanoTime() - mBusyStartNanos.get();
+        }
+        return busyNanos > 0 ? mCompletedCount.get() * 1e9f / busyNanos : 0;
+    }
+}
@@ -0,0 +1,186 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.shenrh.canvas;
+
+import android.graphics.Rect;
+import android.support.v4.view.ViewCompat;
+
+/**
+ * UIView的帧调度，同一帧内element的layout和invalidate请求合并，下一个vsync时只做一次layout和一次invalidate
+ *
+ * @author shenrh
+ *
+ */
+public class UIFrameScheduler implements Runnable {
+    // layout过程中又请求layout时，同一帧内最多重复的次数，超过后留到下一帧
+    private static final int MAX_LAYOUT_PASSES = 3;
+
+    private final UIView mHost;
+
+    private boolean mScheduled = false;
+    private boolean mFlushing = false;
+    private boolean mLayoutPending = false;
+    private int mBatchDepth = 0;
+    private final Rect mDirtyRect = new Rect();
+
+    private int mLayoutRequestCount;
+    private int mLayoutFlushCount;
+    private int mInvalidateRequestCount;
+    private int mInvalidateFlushCount;
+
+    UIFrameScheduler(UIView host) {
+        mHost = host;
+    }
+
+    void scheduleLayout() {
+        mLayoutRequestCount++;
+        mLayoutPending = true;
+        schedule();
+    }
+
+    /**
+     * l t r b为UIView中的坐标
+     */
+    void scheduleInvalidate(int l, int t, int r, int b) {
+        mInvalidateRequestCount++;
+        mDirtyRect.union(l, t, r, b);
+        schedule();
+    }
+
+    private void schedule() {
+        if (mScheduled || mFlushing || mBatchDepth > 0) {
+            return;
+        }
+
+        mScheduled = true;
+        // API 16以上通过Choreographer在下一帧的animation阶段回调
+        ViewCompat.postOnAnimation(mHost, this);
+    }
+
+    void beginBatch() {
+        mBatchDepth++;
+    }
+
+    /**
+     * 最外层的batch结束时立即处理期间记录的请求
+     */
+    void endBatch() {
+        if (mBatchDepth == 0) {
+            throw new IllegalStateException("endUpdate() without matching beginUpdate()");
+        }
+
+        if (--mBatchDepth > 0) {
+            return;
+        }
+
+        if (mScheduled) {
+            mHost.removeCallbacks(this);
+            mScheduled = false;
+        }
+        flush();
+    }
+
+    boolean isInBatch() {
+        return mBatchDepth > 0;
+    }
+
+    /**
+     * UIView detach时调用，丢弃重绘请求，还没处理的layout请求转成View的requestLayout，
+     * 否则根element一直保持layout标记，之后的请求都传不到UIView
+     */
+    void cancel() {
+        if (mScheduled) {
+            mHost.removeCallbacks(this);
+            mScheduled = false;
+        }
+
+        if (mLayoutPending) {
+            mLayoutPending = false;
+            mHost.requestLayout();
+        }
+        mDirtyRect.setEmpty();
+    }
+
+    public boolean hasPendingRequests() {
+        return mLayoutPending || !mDirtyRect.isEmpty();
+    }
+
+    @Override
+    public void run() {
+        mScheduled = false;
+        flush();
+    }
+
+    /**
+     * layout过程中产生的脏区域一起合并到这次invalidate中，layout中再次请求的layout在同一帧内重做，
+     * 超过{@link #MAX_LAYOUT_PASSES}次后post到下一帧
+     */
+    void flush() {
+        for (int pass = 0; mLayoutPending && pass < MAX_LAYOUT_PASSES; pass++) {
+            mLayoutPending = false;
+            mLayoutFlushCount++;
+
+            mFlushing = true;
+            try {
+                mHost.performElementLayout();
+            } finally {
+                mFlushing = false;
+            }
+        }
+
+        if (!mDirtyRect.isEmpty()) {
+            mInvalidateFlushCount++;
+            mHost.invalidate(mDirtyRect.left, mDirtyRect.top, mDirtyRect.right, mDirtyRect.bottom);
+            mDirtyRect.setEmpty();
+        }
+
+        if (hasPendingRequests()) {
+            schedule();
+        }
+    }
+
+    public int getLayoutRequestCount() {
+        return mLayoutRequestCount;
+    }
+
+    public int getInvalidateRequestCount() {
+        return mInvalidateRequestCount;
+    }
+
+    /**
+     * 被合并掉的layout请求数
+     *
+     * @return
+     */
+    public int getCoalescedLayoutCount() {
+        return mLayoutRequestCount - mLayoutFlushCount;
+    }
+
+    /**
+     * 被合并掉的invalidate请求数
+     *
+     * @return
+     */
+    public int getCoalescedInvalidateCount() {
+        return mInvalidateRequestCount - mInvalidateFlushCount;
+    }
+
+    public void resetCounters() {
+        mLayoutRequestCount = 0;
+        mLayoutFlushCount = 0;
+        mInvalidateRequestCount = 0;
+        mInvalidateFlushCount = 0;
+    }
+}
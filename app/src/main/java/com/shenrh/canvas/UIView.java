@@ -16,9 +16,11 @@ package com.shenrh.canvas;
 
 import android.content.Context;
 import android.graphics.Canvas;
+import android.graphics.Rect;
 import android.util.AttributeSet;
 import android.view.MotionEvent;
 import android.view.View;
+import android.view.ViewTreeObserver;
 
 /**
  * 最终整合View
@@ -28,6 +30,42 @@ public class UIView extends View implements UIContext {
     private UIElement mUIElement;
     private boolean mIsClear = false;
 
+    // 两次onDraw之间累积的脏区域，以及最近一帧实际重绘的区域
+    private Rect mDamageRect;
+    private final Rect mFrameDamageRect = new Rect();
+
+    // layout boundary模式下element的layout请求在下一帧内部处理，不再触发Android的layout
+    private boolean mLayoutBoundary = false;
+    private boolean mElementMeasured = false;
+    private int mElementWidthSpec;
+    private int mElementHeightSpec;
+
+    // element的invalidate请求按帧合并，attach之后且不在Android的measure/layout过程中才使用；
+    // layout请求只在layout boundary模式或batch中合并，其它情况直接requestLayout，不增加一帧延迟
+    private UIFrameScheduler mFrameScheduler;
+    private boolean mAttached = false;
+    private boolean mInLayout = false;
+
+    // 上一次绘制中有element按可见区域绘制时为true，可见区域在滚动中变化后需要重绘
+    private boolean mDrawDependsOnVisibleRect = false;
+    private final Rect mDrawnVisibleRect = new Rect();
+    private final Rect mTempVisibleRect = new Rect();
+    private final ViewTreeObserver.OnScrollChangedListener mScrollChangedListener = new ViewTreeObserver.OnScrollChangedListener() {
+        @Override
+        public void onScrollChanged() {
+            if (!mDrawDependsOnVisibleRect) {
+                return;
+            }
+
+            if (!getLocalVisibleRect(mTempVisibleRect)) {
+                mTempVisibleRect.setEmpty();
+            }
+            if (!mTempVisibleRect.equals(mDrawnVisibleRect)) {
+                invalidate();
+            }
+        }
+    };
+
     public UIView(Context context, AttributeSet attrs) {
         this(context, attrs, 0);
     }
@@ -39,9 +77,16 @@ public class UIView extends View implements UIContext {
     @Override
     protected void onAttachedToWindow() {
         super.onAttachedToWindow();
+        mAttached = true;
+        getViewTreeObserver().addOnScrollChangedListener(mScrollChangedListener);
 
         if (mUIElement != null) {
             mUIElement.setContext(this);
+            // detach期间的layout请求只标记到了根element，没有通知到UIView，这里补上，
+            // 否则之后的请求都会停在已经标记过的祖先上
+            if (mUIElement.isLayoutRequested()) {
+                requestLayout();
+            }
         }
     }
 
@@ -49,18 +94,135 @@ public class UIView extends View implements UIContext {
     protected void onDetachedFromWindow() {
         super.onDetachedFromWindow();
 
+        mAttached = false;
+        getViewTreeObserver().removeOnScrollChangedListener(mScrollChangedListener);
+        if (mFrameScheduler != null) {
+            mFrameScheduler.cancel();
+        }
+
         if (mUIElement != null) {
             mUIElement.setContext(null);
         }
     }
 
+    @Override
+    public void invalidate() {
+        if (mDamageRect == null) {
+            mDamageRect = new Rect();
+        }
+        mDamageRect.set(0, 0, getWidth(), getHeight());
+        super.invalidate();
+    }
+
+    @Override
+    public void invalidate(int l, int t, int r, int b) {
+        if (mDamageRect == null) {
+            mDamageRect = new Rect();
+        }
+        mDamageRect.union(l, t, r, b);
+        super.invalidate(l, t, r, b);
+    }
+
+    /**
+     * 只有element的invalidate走帧调度，框架和子类对{@link #invalidate(int, int, int, int)}的调用保持立即生效
+     */
+    @Override
+    public void invalidateElementRect(int l, int t, int r, int b) {
+        if (useFrameScheduler()) {
+            getFrameScheduler().scheduleInvalidate(l, t, r, b);
+        } else {
+            invalidate(l, t, r, b);
+        }
+    }
+
+    @Override
+    public boolean getHostVisibleRect(Rect outRect) {
+        mDrawDependsOnVisibleRect = true;
+        final boolean visible = getLocalVisibleRect(outRect);
+        if (visible) {
+            mDrawnVisibleRect.set(outRect);
+        } else {
+            mDrawnVisibleRect.setEmpty();
+        }
+        return visible;
+    }
+
+    private boolean useFrameScheduler() {
+        if (mInLayout) {
+            return false;
+        }
+        return mAttached || isInBatch();
+    }
+
+    /**
+     * ListView等在getView之后马上根据isLayoutRequested决定是否重新measure，layout请求不能推迟到下一帧
+     */
+    private boolean scheduleElementLayout() {
+        if (mInLayout) {
+            return false;
+        }
+        return (mLayoutBoundary && mAttached) || isInBatch();
+    }
+
+    private boolean isInBatch() {
+        return mFrameScheduler != null && mFrameScheduler.isInBatch();
+    }
+
+    /**
+     * 开始批量更新，到对应的endUpdate之前element的layout和invalidate请求只做记录，
+     * endUpdate时立即处理，最多一次measure/layout和一次重绘，可以嵌套调用
+     */
+    public void beginUpdate() {
+        getFrameScheduler().beginBatch();
+    }
+
+    public void endUpdate() {
+        getFrameScheduler().endBatch();
+    }
+
+    public void runBatched(Runnable action) {
+        beginUpdate();
+        try {
+            action.run();
+        } finally {
+            endUpdate();
+        }
+    }
+
+    /**
+     * 帧调度器，可以获取被合并的请求数
+     * 
+     * @return
+     */
+    public UIFrameScheduler getFrameScheduler() {
+        if (mFrameScheduler == null) {
+            mFrameScheduler = new UIFrameScheduler(this);
+        }
+        return mFrameScheduler;
+    }
+
+    /**
+     * 最近一帧由element触发的重绘区域，UIView坐标
+     * 
+     * @param outRect
+     */
+    public void getFrameDamageRect(Rect outRect) {
+        outRect.set(mFrameDamageRect);
+    }
+
     @Override
     protected void onDraw(Canvas canvas) {
         super.onDraw(canvas);
 
+        if (mDamageRect != null) {
+            mFrameDamageRect.set(mDamageRect);
+            mDamageRect.setEmpty();
+        }
+
         final int saveCount = canvas.getSaveCount();
         canvas.save();
 
+        mDrawDependsOnVisibleRect = false;
         if (mUIElement != null) {
             mUIElement.draw(canvas);
         }
@@ -70,6 +232,15 @@ public class UIView extends View implements UIContext {
 
     @Override
     protected void onMeasure(int widthMeasureSpec, int heightMeasureSpec) {
+        mInLayout = true;
+        try {
+            measureElement(widthMeasureSpec, heightMeasureSpec);
+        } finally {
+            mInLayout = false;
+        }
+    }
+
+    private void measureElement(int widthMeasureSpec, int heightMeasureSpec) {
         int measuredWidth = 0;
         int measuredHeight = 0;
 
@@ -84,12 +255,15 @@ public class UIView extends View implements UIContext {
             final int viewHeightSize = MeasureSpec.getSize(heightMeasureSpec);
             final int viewHeightMode = MeasureSpec.getMode(heightMeasureSpec);
 
-            final int elementWidth = viewWidthSize - paddingLeft - paddingRight;
+            final int elementWidth = Math.max(0, viewWidthSize - paddingLeft - paddingRight);
             final int elementWidthSpec = MeasureSpec.makeMeasureSpec(elementWidth, viewWidthMode);
-            final int elementHeight = viewHeightSize - paddingTop - paddingBottom;
+            final int elementHeight = Math.max(0, viewHeightSize - paddingTop - paddingBottom);
             final int elementHeightSpec = MeasureSpec.makeMeasureSpec(elementHeight, viewHeightMode);
 
             mUIElement.measure(elementWidthSpec, elementHeightSpec);
+            mElementWidthSpec = elementWidthSpec;
+            mElementHeightSpec = elementHeightSpec;
+            mElementMeasured = true;
 
             measuredWidth = mUIElement.getMeasuredWidth() + paddingLeft + paddingRight;
             measuredHeight = mUIElement.getMeasuredHeight() + paddingTop + paddingBottom;
@@ -106,6 +280,8 @@ public class UIView extends View implements UIContext {
         super.onLayout(changed, left, top, right, bottom);
 
         if (mUIElement != null) {
+            mInLayout = true;
+
             final int paddingLeft = getPaddingLeft();
             final int paddingTop = getPaddingTop();
 
@@ -114,10 +290,64 @@ public class UIView extends View implements UIContext {
             final int elementRight = right - left - getPaddingRight();
             final int elementBottom = bottom - top - getPaddingBottom();
 
-            mUIElement.layout(elementLeft, elementTop, elementRight, elementBottom);
+            try {
+                mUIElement.layout(elementLeft, elementTop, elementRight, elementBottom);
+            } finally {
+                mInLayout = false;
+            }
         }
     }
 
+    /**
+     * 固定大小或者确定内容变化不会影响大小时可以开启，element的layout请求在UIView内部以上次的spec重新measure/layout，
+     * 只有measure出的大小变化时才会调用Android的requestLayout
+     * 
+     * @param layoutBoundary
+     */
+    public void setLayoutBoundary(boolean layoutBoundary) {
+        mLayoutBoundary = layoutBoundary;
+    }
+
+    public boolean isLayoutBoundary() {
+        return mLayoutBoundary;
+    }
+
+    @Override
+    public void requestElementLayout() {
+        if (scheduleElementLayout()) {
+            getFrameScheduler().scheduleLayout();
+        } else {
+            requestLayout();
+        }
+    }
+
+    /**
+     * 帧调度器合并后的layout请求
+     */
+    /* package */void performElementLayout() {
+        if (!mLayoutBoundary || !mElementMeasured || isLayoutRequested()) {
+            requestLayout();
+            return;
+        }
+
+        if (mUIElement == null || !mUIElement.isLayoutRequested()) {
+            return;
+        }
+
+        final int oldWidth = mUIElement.getMeasuredWidth();
+        final int oldHeight = mUIElement.getMeasuredHeight();
+
+        mUIElement.measure(mElementWidthSpec, mElementHeightSpec);
+
+        if (mUIElement.getMeasuredWidth() != oldWidth || mUIElement.getMeasuredHeight() != oldHeight) {
+            // 大小变化了，只能交给Android重新layout
+            requestLayout();
+            return;
+        }
+
+        mUIElement.layout(getPaddingLeft(), getPaddingTop(), getWidth() - getPaddingRight(), getHeight() - getPaddingBottom());
+    }
+
     @Override
     public void drawableStateChanged() {
         if (mUIElement != null) {
@@ -142,7 +372,8 @@ public class UIView extends View implements UIContext {
     }
 
     /**
-     * 设置代理
+     * 设置代理，element可以是在非ui线程通过{@link DetachedUIContext}创建并layout好的，
+     * spec相同时不会再重新measure
      * 
      * @param element
      */
@@ -13,14 +13,12 @@
  */
 package com.shenrh.layout.widget;
 
-import java.text.SimpleDateFormat;
-import java.util.Date;
-
 import android.content.res.Resources;
 import android.util.AttributeSet;
 import android.view.View.MeasureSpec;
 import android.view.ViewGroup.LayoutParams;
 
+import com.shenrh.canvas.FormattedLabelUIElement;
 import com.shenrh.canvas.ImageUIElement;
 import com.shenrh.canvas.TextUIElement;
 import com.shenrh.canvas.UIContext;
@@ -31,7 +29,7 @@ import com.shenrh.layout.R;
 public class CustomElement extends UIElementGroup {
     private ImageUIElement mProfileImage;
     private TextUIElement mAuthorText;
-    private TextUIElement mMessageText;
+    private FormattedLabelUIElement mMessageText;
     private ImageUIElement mPostImage;
 
     public CustomElement(UIContext host) {
@@ -49,7 +47,8 @@ public class CustomElement extends UIElementGroup {
         mAuthorText = new TextUIElement(host);
         mAuthorText.setTextColor(getResources().getColor(R.color.tweet_author_text_color));
         mAuthorText.setTextSize(getResources().getDimensionPixelOffset(R.dimen.tweet_author_text_size));
-        mMessageText = new TextUIElement(host);
+        mMessageText = new FormattedLabelUIElement(host);
+        mMessageText.setPrefix("time:");
         mMessageText.setTextColor(getResources().getColor(R.color.tweet_message_text_color));
         mMessageText.setTextSize(getResources().getDimensionPixelOffset(R.dimen.tweet_message_text_size));
         mProfileImage = new ImageUIElement(host);
@@ -142,11 +141,7 @@ public class CustomElement extends UIElementGroup {
     }
 
     public void chageTime() {
-        long time = System.currentTimeMillis();
-        SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
-        Date d1 = new Date(time);
-
-        mMessageText.setText("time:" + format.format(d1));
+        mMessageText.setDateTime(System.currentTimeMillis());
     }
 
 }